@@ -0,0 +1,42 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Rain reader that does not block the caller while downloading and decoding.
+ *
+ * @author saemann
+ */
+public interface AsyncRain_Reader extends Rain_Reader {
+
+    /**
+     * Same result as {@link #readRain()}. All time steps are fetched
+     * concurrently.
+     *
+     * @return completes with double[nbTimes][0:time as long,1:precipitation]
+     */
+    public CompletableFuture<double[][]> readRainAsync();
+}
@@ -0,0 +1,220 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Polls a directory listing of the DWD open data server (nginx autoindex)
+ * for new files. Requests are conditional (ETag / Last-Modified), an
+ * unchanged listing is answered with 304 and not parsed at all. A changed
+ * listing is parsed from its end (newest names) back to the newest name of
+ * the last poll only.
+ *
+ * @author saemann
+ */
+public class DWD_DirectoryPoller {
+
+    private static final DateTimeFormatter LISTING_DATE = DateTimeFormatter.ofPattern("dd-MMM-yyyy HH:mm", Locale.ENGLISH);
+
+    /**
+     * One file of the listing.
+     */
+    public static class Entry {
+
+        public final String name;
+        /**
+         * Upload time given in the listing (UTC milliseconds).
+         */
+        public final long lastModified;
+        /**
+         * [bytes], -1 if not given.
+         */
+        public final long size;
+
+        public Entry(String name, long lastModified, long size) {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return name + " @" + new Date(lastModified) + ", " + size + " bytes";
+        }
+    }
+
+    public final String url;
+
+    private String etag, lastModified;
+    private String lastName;
+
+    /**
+     *
+     * @param url directory URL, ending with '/'
+     */
+    public DWD_DirectoryPoller(String url) {
+        this.url = url;
+    }
+
+    /**
+     * Newest file name known from the last poll.
+     *
+     * @return null before the first successful poll.
+     */
+    public synchronized String getLastName() {
+        return lastName;
+    }
+
+    /**
+     * Only files with a greater name than this are reported by the next
+     * poll, e.g. to continue after a restart.
+     *
+     * @param lastName
+     */
+    public synchronized void setLastName(String lastName) {
+        this.lastName = lastName;
+        this.etag = null;
+        this.lastModified = null;
+    }
+
+    /**
+     * Requests the listing if it changed since the last poll.
+     *
+     * @return new entries since the last poll in order of their names (oldest
+     * first). Empty if nothing changed. All entries with the first poll.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public synchronized List<Entry> poll() throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMillis(DWD_RQ_Reader.requestTimeoutMS));
+        if (etag != null) {
+            request.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            request.header("If-Modified-Since", lastModified);
+        }
+        HttpResponse<byte[]> response = DWD_RQ_Reader.HTTP_CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() == 304) {
+            return Collections.emptyList();
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("HTTP " + response.statusCode() + " for " + url);
+        }
+        List<Entry> entries = parseNewEntries(response.body(), lastName);
+        if (!entries.isEmpty()) {
+            lastName = entries.get(entries.size() - 1).name;
+        }
+        etag = response.headers().firstValue("ETag").orElse(null);
+        lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        return entries;
+    }
+
+    /**
+     * Parses the listing lines backwards until the given name is reached.
+     *
+     * @param listing html content
+     * @param lastName stop at this name, null to parse all.
+     * @return entries with names greater than lastName, ascending.
+     */
+    static List<Entry> parseNewEntries(byte[] listing, String lastName) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        int end = listing.length;
+        while (end > 0) {
+            int start = end - 1;
+            while (start > 0 && listing[start - 1] != '\n') {
+                start--;
+            }
+            String line = new String(listing, start, end - start, StandardCharsets.UTF_8);
+            end = start - 1;
+            Entry entry = parseLine(line);
+            if (entry == null) {
+                continue;
+            }
+            if (lastName != null && entry.name.compareTo(lastName) <= 0) {
+                break;
+            }
+            entries.add(entry);
+        }
+        Collections.reverse(entries);
+        return entries;
+    }
+
+    /**
+     * One line like
+     * {@code <a href="RQ1910171200_000.gz">RQ1910171200_000.gz</a>   17-Oct-2019 12:04   123456}
+     *
+     * @param line
+     * @return null if the line is no file entry.
+     */
+    static Entry parseLine(String line) {
+        int a = line.indexOf("<a href=\"");
+        if (a < 0) {
+            return null;
+        }
+        int b = line.indexOf('"', a + 9);
+        int c = line.indexOf("</a>", b);
+        if (b < 0 || c < 0) {
+            return null;
+        }
+        String name = line.substring(a + 9, b);
+        if (name.endsWith("/")) {
+            //Parent or sub directory
+            return null;
+        }
+        String[] parts = line.substring(c + 4).trim().split("\\s+");
+        if (parts.length < 2) {
+            return null;
+        }
+        long time;
+        try {
+            time = LocalDateTime.parse(parts[0] + " " + parts[1], LISTING_DATE).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+        long size = -1;
+        if (parts.length > 2) {
+            try {
+                size = Long.parseLong(parts[2]);
+            } catch (NumberFormatException ex) {
+            }
+        }
+        return new Entry(name, time, size);
+    }
+}
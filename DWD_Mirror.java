@@ -0,0 +1,397 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a local copy of a DWD open data directory (e.g. RQ, RW, RV). Missing
+ * files are downloaded in parallel into ".part" files, which are resumed
+ * with HTTP range requests after an interruption. A file is only renamed to
+ * its final name if its size matches the listing. Local files with the
+ * listed size are skipped.
+ * <br>
+ * Retention is off by default. If {@link #retentionMS} is set, only files
+ * downloaded by the mirror itself are deleted. Their names are recorded in
+ * the manifest file {@link #MANIFEST} in the directory, other files are never
+ * touched.
+ *
+ * @author saemann
+ */
+public class DWD_Mirror {
+
+    /**
+     * Name of the file listing all files downloaded by the mirror.
+     */
+    public static final String MANIFEST = ".mirror";
+
+    /**
+     * Root of the default mirror directories, set with the system property
+     * "radolan.mirror". Kept apart from
+     * {@link DWD_RQ_Reader#defaultDownloadDirectory}.
+     */
+    public static File defaultDirectory = new File(System.getProperty("radolan.mirror", "L:\\WetterDWDMirror"));
+
+    public final String url;
+    public final File directory;
+
+    /**
+     * Number of concurrent downloads.
+     */
+    public int parallelDownloads = 8;
+
+    /**
+     * Files downloaded by the mirror are deleted by {@link #sync()} when they
+     * are older than this [ms]. Values &lt;= 0 (default) keep all files.
+     */
+    public long retentionMS = 0;
+
+    private final DWD_DirectoryPoller poller;
+
+    /**
+     * Entries of previous syncs that could not be downloaded.
+     */
+    private final List<DWD_DirectoryPoller.Entry> pending = new ArrayList<>();
+
+    /**
+     * Names of downloaded files, loaded from the {@link #MANIFEST} with the
+     * first use.
+     */
+    private TreeSet<String> manifest;
+
+    /**
+     * Summary of one sync.
+     */
+    public static class Result {
+
+        /**
+         * Newly downloaded files in order of their names.
+         */
+        public final List<File> downloaded = new ArrayList<>();
+        /**
+         * Number of listed files that were already complete.
+         */
+        public int skipped;
+        /**
+         * Number of files that could not be downloaded. They are retried by
+         * the next sync.
+         */
+        public int failed;
+        /**
+         * Number of files removed by the retention policy.
+         */
+        public int deleted;
+
+        @Override
+        public String toString() {
+            return "downloaded " + downloaded.size() + ", skipped " + skipped + ", failed " + failed + ", deleted " + deleted;
+        }
+    }
+
+    /**
+     *
+     * @param url directory URL, ending with '/'
+     * @param directory local target directory, created if needed.
+     */
+    public DWD_Mirror(String url, File directory) {
+        this.url = url;
+        this.directory = directory;
+        this.poller = new DWD_DirectoryPoller(url);
+    }
+
+    /**
+     * Mirror of the RQ directory of {@link DWD_RQ_Reader#urlRootRQ} into
+     * the subdirectory "rq" of {@link #defaultDirectory}.
+     *
+     * @return
+     */
+    public static DWD_Mirror RQ() {
+        return new DWD_Mirror(DWD_RQ_Reader.urlRootRQ, new File(defaultDirectory, "rq"));
+    }
+
+    /**
+     * Downloads all listed files that are missing or incomplete and applies
+     * the retention policy. The whole listing is checked with the first
+     * call, afterwards only new entries and failed files.
+     *
+     * @return
+     * @throws IOException if the listing can not be read.
+     * @throws InterruptedException
+     */
+    public synchronized Result sync() throws IOException, InterruptedException {
+        directory.mkdirs();
+        Result result = new Result();
+        List<DWD_DirectoryPoller.Entry> entries = new ArrayList<>(pending);
+        pending.clear();
+        entries.addAll(poller.poll());
+        long oldest = retentionMS > 0 ? System.currentTimeMillis() - retentionMS : Long.MIN_VALUE;
+
+        ArrayList<DWD_DirectoryPoller.Entry> missing = new ArrayList<>();
+        for (DWD_DirectoryPoller.Entry entry : entries) {
+            File file = new File(directory, entry.name);
+            if (entry.lastModified < oldest) {
+                continue;
+            }
+            if (file.exists() && (entry.size < 0 || file.length() == entry.size)) {
+                result.skipped++;
+            } else {
+                missing.add(entry);
+            }
+        }
+
+        record(missing);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelDownloads), r -> {
+            Thread t = new Thread(r, "DWD-mirror");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            ArrayList<Future<File>> downloads = new ArrayList<>(missing.size());
+            for (final DWD_DirectoryPoller.Entry entry : missing) {
+                downloads.add(executor.submit(() -> download(entry)));
+            }
+            for (int n = 0; n < downloads.size(); n++) {
+                try {
+                    result.downloaded.add(downloads.get(n).get());
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(DWD_Mirror.class.getName()).log(Level.WARNING, "Download of " + missing.get(n).name + " failed.", ex.getCause());
+                    pending.add(missing.get(n));
+                    result.failed++;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        result.deleted = applyRetention(oldest);
+        return result;
+    }
+
+    /**
+     * Downloads one file. An existing ".part" file is continued with a range
+     * request. The download starts again if the server answers with another
+     * range.
+     *
+     * @param entry
+     * @return complete local file
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    File download(DWD_DirectoryPoller.Entry entry) throws IOException, InterruptedException {
+        File file = new File(directory, entry.name);
+        File part = new File(directory, entry.name + ".part");
+        long offset = part.exists() ? part.length() : 0;
+        if (entry.size >= 0 && offset > entry.size) {
+            offset = 0;
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url + entry.name))
+                .timeout(Duration.ofMillis(Math.max(DWD_RQ_Reader.requestTimeoutMS, 60000)));
+        if (offset > 0 && offset != entry.size) {
+            request.header("Range", "bytes=" + offset + "-");
+        }
+        if (offset == 0 || offset != entry.size) {
+            HttpResponse<InputStream> response = DWD_RQ_Reader.HTTP_CLIENT.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                int status = response.statusCode();
+                if (status == 416 && offset > 0) {
+                    //Range not satisfiable: the part file is already complete
+                } else if (status == 206 && rangeStart(response) != offset) {
+                    //Range of another start, do not trust the part file
+                    Files.delete(part.toPath());
+                    body.close();
+                    return download(entry);
+                } else if (status == 206 || status == 200) {
+                    //200: Server ignored the range, start again
+                    write(body, part, status == 206 ? offset : 0);
+                } else {
+                    throw new IOException("HTTP " + status + " for " + response.uri());
+                }
+            }
+        }
+        if (entry.size >= 0 && part.length() != entry.size) {
+            throw new IOException("Incomplete download of " + entry.name + ": " + part.length() + " of " + entry.size + " bytes.");
+        }
+        Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        file.setLastModified(entry.lastModified);
+        return file;
+    }
+
+    /**
+     * Writes the body to the part file from the position on and cuts the
+     * file after the last byte.
+     */
+    private static void write(InputStream body, File part, long position) throws IOException {
+        try (ReadableByteChannel in = Channels.newChannel(body);
+                FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long bytes_read;
+            do {
+                bytes_read = out.transferFrom(in, position, 1 << 20);
+                position += bytes_read;
+            } while (bytes_read > 0);
+            out.truncate(position);
+            out.force(false);
+        }
+    }
+
+    /**
+     * First byte of a partial response ("Content-Range: bytes 100-199/200").
+     *
+     * @return -1 if the header is missing or can not be read.
+     */
+    static long rangeStart(HttpResponse<?> response) {
+        String range = response.headers().firstValue("Content-Range").orElse("").trim();
+        if (!range.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = range.indexOf('-', 6);
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(6, dash).trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Adds the names of files about to be downloaded to the manifest before
+     * the first byte is written.
+     *
+     * @param entries
+     * @throws IOException
+     */
+    private void record(List<DWD_DirectoryPoller.Entry> entries) throws IOException {
+        TreeSet<String> names = getManifest();
+        StringBuilder added = new StringBuilder();
+        for (DWD_DirectoryPoller.Entry entry : entries) {
+            if (names.add(entry.name)) {
+                added.append(entry.name).append('\n');
+            }
+        }
+        if (added.length() > 0) {
+            Files.write(new File(directory, MANIFEST).toPath(), added.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private TreeSet<String> getManifest() throws IOException {
+        if (manifest == null) {
+            manifest = new TreeSet<>();
+            File file = new File(directory, MANIFEST);
+            if (file.exists()) {
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    if (!line.isEmpty()) {
+                        manifest.add(line);
+                    }
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Deletes downloaded files (and stale ".part" files) of the manifest last
+     * modified before the given time. Files not downloaded by the mirror are
+     * kept.
+     *
+     * @param oldest UTC milliseconds
+     * @return number of deleted files
+     * @throws IOException if the manifest can not be updated.
+     */
+    private int applyRetention(long oldest) throws IOException {
+        if (retentionMS <= 0) {
+            return 0;
+        }
+        int deleted = 0;
+        boolean changed = false;
+        Iterator<String> it = getManifest().iterator();
+        while (it.hasNext()) {
+            String name = it.next();
+            File file = new File(directory, name);
+            File part = new File(directory, name + ".part");
+            for (File f : new File[]{file, part}) {
+                if (f.isFile() && f.lastModified() < oldest && f.delete()) {
+                    deleted++;
+                }
+            }
+            if (!file.exists() && !part.exists()) {
+                it.remove();
+                changed = true;
+            }
+        }
+        if (changed) {
+            StringBuilder names = new StringBuilder();
+            for (String name : manifest) {
+                names.append(name).append('\n');
+            }
+            File tmp = new File(directory, MANIFEST + ".part");
+            Files.write(tmp.toPath(), names.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), new File(directory, MANIFEST).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return deleted;
+    }
+
+    /**
+     * Names of all complete local files in order of production time.
+     *
+     * @return
+     */
+    public List<File> listFiles() {
+        ArrayList<File> list = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile() && !f.getName().endsWith(".part") && !f.getName().equals(MANIFEST)) {
+                    list.add(f);
+                }
+            }
+        }
+        Collections.sort(list, (a, b) -> RadolanReader.PRODUCTION_TIME_ORDER.compare(a.toPath(), b.toPath()));
+        return list;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the RQ rain of many locations at once. Every product file is
+ * downloaded and decoded only once per update for all registered locations.
+ *
+ * @author saemann
+ */
+public class DWD_RQ_MultiReader {
+
+    /**
+     * Lead times of the actual, +60 and +120 minutes files.
+     */
+    private static final long[] LEAD_MS = new long[]{0, 60 * 60 * 1000, 120 * 60 * 1000};
+
+    /**
+     * Downloads the files and knows the newest file names.
+     */
+    public final DWD_RQ_Reader reader;
+
+    private String[] names = new String[16];
+    private int[] i = new int[16], j = new int[16];
+    private double[] lat = new double[16], lon = new double[16];
+    private int size = 0;
+    /**
+     * True if some locations are given as lat/lon and their indices are not
+     * yet known.
+     */
+    private boolean unresolved = false;
+
+    /**
+     * Rain of all locations at the three time steps of the RQ product.
+     */
+    public static class Result {
+
+        /**
+         * Names of the locations in order of registration.
+         */
+        public final String[] names;
+
+        /**
+         * End times of the intervals (UTC milliseconds), 0 if a file could
+         * not be read.
+         */
+        public final long[] times;
+
+        /**
+         * Precipitation [mm/h] with index location*times.length+time. NaN if
+         * there is no value.
+         */
+        public final double[] precipitation;
+
+        public Result(String[] names, long[] times, double[] precipitation) {
+            this.names = names;
+            this.times = times;
+            this.precipitation = precipitation;
+        }
+
+        /**
+         *
+         * @param location index of registration
+         * @param time 0:actual, 1:+60min, 2:+120min
+         * @return [mm/h]
+         */
+        public double getPrecipitation(int location, int time) {
+            return precipitation[location * times.length + time];
+        }
+    }
+
+    public DWD_RQ_MultiReader() {
+        this(new DWD_RQ_Reader());
+    }
+
+    public DWD_RQ_MultiReader(DWD_RQ_Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Registers a location by its grid indices.
+     *
+     * @param name
+     * @param i row (0=South)
+     * @param j column (0=West)
+     * @return index of the location in the results.
+     * @throws IllegalArgumentException for negative indices.
+     */
+    public int addLocation(String name, int i, int j) {
+        if (i < 0 || j < 0) {
+            throw new IllegalArgumentException("Cell (" + i + "," + j + ") of " + name + " is outside of the grid.");
+        }
+        int index = add(name);
+        this.i[index] = i;
+        this.j[index] = j;
+        this.lat[index] = Double.NaN;
+        this.lon[index] = Double.NaN;
+        return index;
+    }
+
+    /**
+     * Registers a location by its coordinates. The grid indices are
+     * calculated with the first file read.
+     *
+     * @param name
+     * @param lat latitude [deg N]
+     * @param lon longitude [deg E]
+     * @return index of the location in the results.
+     */
+    public int addLocationLatLon(String name, double lat, double lon) {
+        int index = add(name);
+        this.i[index] = -1;
+        this.j[index] = -1;
+        this.lat[index] = lat;
+        this.lon[index] = lon;
+        unresolved = true;
+        return index;
+    }
+
+    private int add(String name) {
+        if (size == names.length) {
+            int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            i = Arrays.copyOf(i, capacity);
+            j = Arrays.copyOf(j, capacity);
+            lat = Arrays.copyOf(lat, capacity);
+            lon = Arrays.copyOf(lon, capacity);
+        }
+        names[size] = name;
+        return size++;
+    }
+
+    /**
+     *
+     * @return number of registered locations
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean newDataAvailable() {
+        return reader.newDataAvailable();
+    }
+
+    public void checkForNewData() {
+        reader.checkForNewData();
+    }
+
+    /**
+     * Downloads (if needed) and decodes the actual, +60 and +120 minutes
+     * files once and reads the values of all locations.
+     *
+     * @return
+     */
+    public Result readRain() {
+        String[] fileNames = reader.getFileNames();
+        long[] times = new long[fileNames.length];
+        double[] precipitation = new double[size * fileNames.length];
+        Arrays.fill(precipitation, Double.NaN);
+        //Request all files at once, frames are shared through the RadolanCache
+        List<CompletableFuture<RadolanData>> frames = new ArrayList<>(fileNames.length);
+        for (String fileName : fileNames) {
+            frames.add(reader.fetchData(fileName));
+        }
+        for (int t = 0; t < fileNames.length; t++) {
+            try {
+                RadolanData frame = frames.get(t).join();
+                if (unresolved) {
+                    resolve(frame.x, frame.y);
+                }
+                //Only request locations inside the grid, others stay NaN
+                int[] ii = new int[size], jj = new int[size], location = new int[size];
+                int n = 0;
+                for (int l = 0; l < size; l++) {
+                    if (i[l] >= 0 && i[l] < frame.y && j[l] >= 0 && j[l] < frame.x) {
+                        ii[n] = i[l];
+                        jj[n] = j[l];
+                        location[n] = l;
+                        n++;
+                    }
+                }
+                RadolanExtract data = RadolanReader.readCells(frame, Arrays.copyOf(ii, n), Arrays.copyOf(jj, n));
+                times[t] = data.header.productionTime.getTimeInMillis() + LEAD_MS[t];
+                for (int k = 0; k < n; k++) {
+                    int intvalue = data.getValue(k);
+                    if (intvalue != Integer.MIN_VALUE) {
+                        precipitation[location[k] * times.length + t] = intvalue * frame.factor + frame.offset;
+                    }
+                }
+                if (t == 0) {
+                    reader.productionTime = data.header.productionTime.getTimeInMillis();
+                }
+            } catch (IOException | CompletionException ex) {
+                Logger.getLogger(DWD_RQ_MultiReader.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        return new Result(Arrays.copyOf(names, size), times, precipitation);
+    }
+
+    /**
+     * Calculates the grid indices of locations given by their coordinates.
+     * Locations outside of the grid keep the index -1.
+     */
+    private void resolve(int x, int y) {
+        RadolanProjection projection = RadolanProjection.forGrid(x, y);
+        if (projection == null) {
+            Logger.getLogger(DWD_RQ_MultiReader.class.getName()).log(Level.WARNING, "Can not locate coordinates in " + x + "x" + y + " grid.");
+            return;
+        }
+        double[] ii = new double[size];
+        double[] jj = new double[size];
+        projection.projectToDataIndices(Arrays.copyOf(lat, size), Arrays.copyOf(lon, size), ii, jj);
+        for (int l = 0; l < size; l++) {
+            if (Double.isNaN(lat[l])) {
+                continue;
+            }
+            int row = (int) Math.floor(ii[l]);
+            int column = (int) Math.floor(jj[l]);
+            if (row >= 0 && row < y && column >= 0 && column < x) {
+                i[l] = row;
+                j[l] = column;
+            }
+        }
+        unresolved = false;
+    }
+
+    public static void main1(String[] args) {
+        DWD_RQ_MultiReader dwd = new DWD_RQ_MultiReader();
+        dwd.addLocation("Hannover Ricklingen", 611, 503);
+        dwd.addLocationLatLon("Berlin", 52.517892, 13.385468);
+        dwd.checkForNewData();
+        Result rain = dwd.readRain();
+        for (int l = 0; l < dwd.size(); l++) {
+            for (int t = 0; t < rain.times.length; t++) {
+                System.out.println(rain.names[l] + " " + new Date(rain.times[t]) + ":  " + rain.getPrecipitation(l, t) + "mm/h");
+            }
+        }
+    }
+}
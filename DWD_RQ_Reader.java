@@ -23,44 +23,81 @@
  */
 package rain.radolan;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.Calendar;
+import java.time.Duration;
 import java.util.Date;
-import java.util.GregorianCalendar;
-import java.util.TimeZone;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import rain.Rain_Reader;
+import rain.AsyncRain_Reader;
 
 /**
  * Downloads data from DWD and decodes gzip files.
  *
  * @author saemann
  */
-public class DWD_RQ_Reader implements Rain_Reader {
+public class DWD_RQ_Reader implements AsyncRain_Reader {
 
     public static String urlRootRQ = "https://opendata.dwd.de/weather/radar/radvor/rq/";
 
     public static long updateMS = 16 * 60 * 1000;
 
+    /**
+     * Timeout for asynchronous requests.
+     */
+    public static long requestTimeoutMS = 10000;
+
+    /**
+     * Daemon threads for asynchronous downloads and decoding.
+     */
+    static final ExecutorService FETCH_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "DWD-fetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * One client for all readers to reuse connections to the server.
+     */
+    static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(requestTimeoutMS))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .executor(FETCH_EXECUTOR)
+            .build();
+
     public long nextUpdate;
 
     private String actualFileName, fc60FileName, fc120FileName;
 
-    public File fileStoreDirectoryDownloads = new File("L:\\WetterDWDForecast");
+    private DWD_DirectoryPoller poller;
+
+    /**
+     * Default for {@link #fileStoreDirectoryDownloads}, set with the system
+     * property "radolan.downloads".
+     */
+    public static File defaultDownloadDirectory = new File(System.getProperty("radolan.downloads", "L:\\WetterDWDForecast"));
+
+    public File fileStoreDirectoryDownloads = defaultDownloadDirectory;
 
     public long productionTime = 0;
 
@@ -81,207 +118,265 @@ public class DWD_RQ_Reader implements Rain_Reader {
         return reader;
     }
 
+    /**
+     * Blocking variant of {@link #readRainAsync()}. Files are decoded while
+     * they are downloaded, without reading them back from disk.
+     *
+     * @return
+     */
     @Override
     public double[][] readRain() {
-        double[][] rain = new double[3][2];
-        //Download Data
-        boolean useTemp = true;
-        if (fileStoreDirectoryDownloads != null && fileStoreDirectoryDownloads.exists() && fileStoreDirectoryDownloads.canWrite()) {
-            useTemp = false;
-        }
+        return readRainAsync().join();
+    }
 
-        //Download actual file
-        File fileActual = null;
-        if (actualFileName != null) {
-            try {
-                boolean alreadyDownloaded = false;
-                if (useTemp) {
-                    fileActual = File.createTempFile(actualFileName.replace(".gz", ""), "");
-                } else {
-                    if (saveGZIPEncoded) {
-                        fileActual = new File(fileStoreDirectoryDownloads, actualFileName);
-                    } else {
-                        fileActual = new File(fileStoreDirectoryDownloads, actualFileName.replace(".gz", ""));
-                    }
-                    if (fileActual.exists() && fileActual.length() > 10) {
-                        alreadyDownloaded = true;
-                    }
-                }
-                if (!alreadyDownloaded) {
-                    if (useTemp || !saveGZIPEncoded) {
-                        downloaddecoded(urlRootRQ + actualFileName, fileActual);
-                    } else {
-                        downloadencoded(urlRootRQ + actualFileName, fileActual);
-                    }
-                }
-            } catch (MalformedURLException ex) {
-                Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (NoSuchAlgorithmException ex) {
-                Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (KeyManagementException ex) {
-                Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (IOException ex) {
-                Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * Fetches the actual, +60 and +120 minutes files concurrently. Each file
+     * is decoded as soon as it has arrived. Failed time steps stay 0 as in
+     * {@link #readRain()}, missing values are NaN. Time steps without a file
+     * name (before {@link #checkForNewData()}) stay 0 without a request.
+     *
+     * @return
+     */
+    @Override
+    public CompletableFuture<double[][]> readRainAsync() {
+        String[] names = getFileNames();
+        final int[] ci = new int[]{i}, cj = new int[]{j};
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final CompletableFuture<RadolanExtract>[] parts = new CompletableFuture[names.length];
+        for (int k = 0; k < names.length; k++) {
+            if (names[k] == null) {
+                parts[k] = CompletableFuture.completedFuture(null);
+                continue;
             }
+            parts[k] = fetchCells(names[k], ci, cj).exceptionally(ex -> {
+                Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
+                return null;
+            });
         }
-
-        if (fileActual != null && fileActual.exists() && fileActual.canRead()) {
-            try {
-                RadolanData dataactual;
-                if (useTemp || !saveGZIPEncoded) {
-                    dataactual = RadolanReader.readRawData(fileActual);
-                } else {
-                    dataactual = RadolanReader.readFile(fileActual);
+        return CompletableFuture.allOf(parts).thenApply(v -> {
+            double[][] rain = new double[parts.length][2];
+            for (int k = 0; k < parts.length; k++) {
+                RadolanExtract data = parts[k].join();
+                if (data == null) {
+                    continue;
+                }
+                rain[k][0] = data.header.productionTime.getTimeInMillis() + k * 60 * 60 * 1000;
+                rain[k][1] = data.getScaledValue(0);
+                if (k == 0) {
+                    this.productionTime = data.header.productionTime.getTimeInMillis();
                 }
-                int intvalue = dataactual.getValueIJ(i, j);
-                double rainMMpH = intvalue * 0.1;
-                rain[0][0] = dataactual.productionTime.getTimeInMillis();
-                rain[0][1] = rainMMpH;
-                this.productionTime = dataactual.productionTime.getTimeInMillis();
-            } catch (IOException ex) {
-                Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
             }
-        }
+            return rain;
+        });
+    }
 
-        //Download 60 min forecast file
-        File file60 = null;
-        if (fc60FileName != null) {
+    /**
+     * Reads cells of one product file without blocking. The cells are taken
+     * from the {@link RadolanCache} if the frame is already decoded.
+     * Otherwise a file from the download directory is used if present, or the
+     * response is inflated only up to the last requested cell and copied to
+     * the download directory (if writable) at the same time. The frame is not
+     * decoded as a whole and not added to the cache.
+     *
+     * @param fileName name of the gzip product file on the server.
+     * @param i rows (0=South)
+     * @param j columns (0=West)
+     * @return
+     */
+    public CompletableFuture<RadolanExtract> fetchCells(String fileName, int[] i, int[] j) {
+        if (fileName == null) {
+            return CompletableFuture.failedFuture(new IOException("No file name known. Call checkForNewData() first."));
+        }
+        return CompletableFuture.supplyAsync(() -> {
             try {
-                boolean alreadyDownloaded = false;
-                if (useTemp) {
-                    file60 = File.createTempFile(fc60FileName.replace(".gz", ""), "");
-                } else {
-                    if (saveGZIPEncoded) {
-                        file60 = new File(fileStoreDirectoryDownloads, fc60FileName);
-                    } else {
-                        file60 = new File(fileStoreDirectoryDownloads, fc60FileName.replace(".gz", ""));
-                    }
-                    if (file60.exists() && file60.length() > 10) {
-                        alreadyDownloaded = true;
-                    }
+                RadolanData cached = RadolanCache.peek(RadolanCache.key(fileName));
+                if (cached != null) {
+                    return RadolanReader.readCells(cached, i, j);
                 }
-                if (!alreadyDownloaded) {
-                    if (useTemp || !saveGZIPEncoded) {
-                        downloaddecoded(urlRootRQ + fc60FileName, file60);
-                    } else {
-                        downloadencoded(urlRootRQ + fc60FileName, file60);
-                    }
+                File file = archiveFile(fileName);
+                if (file != null && file.exists() && file.length() > 10) {
+                    return RadolanReader.readCells(file, i, j);
                 }
-            } catch (MalformedURLException ex) {
-                Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (NoSuchAlgorithmException | KeyManagementException | IOException ex) {
-                Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
+                try (InputStream body = request(urlRootRQ + fileName)) {
+                    return decode(body, file, in -> RadolanReader.readCells(in, i, j));
+                }
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
             }
-        }
+        }, FETCH_EXECUTOR);
+    }
 
-        if (file60 != null && file60.exists() && file60.canRead()) {
+    /**
+     * Decodes a whole product file without blocking. Frames are shared
+     * through the {@link RadolanCache}, the result is a shared read-only
+     * frame ({@link RadolanData#copy()} for a modifiable one). Otherwise a
+     * file from the download directory is used if present, or the response
+     * is inflated and decoded while it arrives and copied to the download
+     * directory (if writable) at the same time.
+     *
+     * @param fileName name of the gzip product file on the server.
+     * @return
+     */
+    public CompletableFuture<RadolanData> fetchData(String fileName) {
+        if (fileName == null) {
+            return CompletableFuture.failedFuture(new IOException("No file name known. Call checkForNewData() first."));
+        }
+        return CompletableFuture.supplyAsync(() -> {
             try {
-                RadolanData data;
-                if (useTemp || !saveGZIPEncoded) {
-                    data = RadolanReader.readRawData(file60);
-                } else {
-                    data = RadolanReader.readFile(file60);
-                }
-                int intvalue = data.getValueIJ(i, j);
-                double rainMMpH = intvalue * 0.1;
-                rain[1][0] = data.productionTime.getTimeInMillis() + 60 * 60 * 1000;
-                rain[1][1] = rainMMpH;
+                return RadolanCache.get(RadolanCache.key(fileName), () -> load(fileName));
             } catch (IOException ex) {
-                Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
+                throw new CompletionException(ex);
             }
+        }, FETCH_EXECUTOR);
+    }
+
+    /**
+     * Decoder of a stream of the uncompressed content.
+     */
+    private interface Decoder<T> {
+
+        T decode(InputStream in) throws IOException;
+    }
+
+    private RadolanData load(String fileName) throws IOException {
+        File file = archiveFile(fileName);
+        if (file != null && file.exists() && file.length() > 10) {
+            return RadolanReader.readFile(file, true);
         }
+        try (InputStream body = request(urlRootRQ + fileName)) {
+            return decode(body, file, in -> RadolanReader.read(in));
+        }
+    }
 
-        //Download 120 min forecast file
-        File file120 = null;
-        if (fc120FileName != null) {
-            try {
-                boolean alreadyDownloaded = false;
-                if (useTemp) {
-                    file120 = File.createTempFile(fc120FileName.replace(".gz", ""), "");
-                } else {
-                    if (saveGZIPEncoded) {
-                        file120 = new File(fileStoreDirectoryDownloads, fc120FileName);
-                    } else {
-                        file120 = new File(fileStoreDirectoryDownloads, fc120FileName.replace(".gz", ""));
-                    }
-                    if (file120.exists() && file120.length() > 10) {
-                        alreadyDownloaded = true;
-                    }
-                }
-                if (!alreadyDownloaded) {
-                    if (useTemp || !saveGZIPEncoded) {
-                        downloaddecoded(urlRootRQ + fc120FileName, file120);
-                    } else {
-                        downloadencoded(urlRootRQ + fc120FileName, file120);
-                    }
-                }
-            } catch (MalformedURLException ex) {
-                Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (NoSuchAlgorithmException | KeyManagementException | IOException ex) {
-                Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
-            }
+    /**
+     * Requests a file with the shared {@link #HTTP_CLIENT}.
+     *
+     * @param url
+     * @return body of the response
+     * @throws IOException if the request fails or the status is not 200.
+     */
+    private static InputStream request(String url) throws IOException {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofMillis(requestTimeoutMS))
+                    .build();
+        } catch (IllegalArgumentException ex) {
+            throw new MalformedURLException(ex.getMessage());
         }
+        HttpResponse<InputStream> response;
+        try {
+            response = HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while requesting " + url, ex);
+        }
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("HTTP " + response.statusCode() + " for " + response.uri());
+        }
+        return response.body();
+    }
 
-        if (file120 != null && file120.exists() && file120.canRead()) {
-            try {
-                RadolanData data;
-                if (useTemp || !saveGZIPEncoded) {
-                    data = RadolanReader.readRawData(file120);
-                } else {
-                    data = RadolanReader.readFile(file120);
-                }
-                int intvalue = data.getValueIJ(i, j);
-                double rainMMpH = intvalue * 0.1;
-                rain[2][0] = data.productionTime.getTimeInMillis() + 120 * 60 * 1000;
-                rain[2][1] = rainMMpH;// this is only for the time period +60 to +120 minutes .     Wrong:- rain[1][1]; //only put the difference between 120 minute and 60minute commulative forecast here.
-            } catch (IOException ex) {
-                Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * Inflates and decodes a gzip stream. If an archive file is given, the
+     * bytes (compressed if {@link #saveGZIPEncoded}) are copied to a ".part"
+     * file on the fly, which is renamed when the stream is complete. Each
+     * download has its own ".part" file, concurrent downloads of the same
+     * file do not interfere.
+     *
+     * @param compressed gzip content
+     * @param file archive file or null
+     * @param decoder
+     * @return
+     * @throws IOException
+     */
+    private <T> T decode(InputStream compressed, File file, Decoder<T> decoder) throws IOException {
+        if (file == null) {
+            return decoder.decode(new GZIPInputStream(compressed, 65536));
+        }
+        File part = File.createTempFile(file.getName() + ".", ".part", file.getParentFile());
+        T result;
+        try (FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.WRITE)) {
+            TeeInputStream tee;
+            if (saveGZIPEncoded) {
+                tee = new TeeInputStream(compressed, channel);
+                result = decoder.decode(new GZIPInputStream(tee, 65536));
+            } else {
+                tee = new TeeInputStream(new GZIPInputStream(compressed, 65536), channel);
+                result = decoder.decode(tee);
             }
+            //The decoder may stop early, the archive needs the whole file.
+            tee.drain();
+        } catch (IOException | RuntimeException ex) {
+            part.delete();
+            throw ex;
         }
+        Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return result;
+    }
 
-        return rain;
+    /**
+     *
+     * @param fileName
+     * @return location in the download directory or null if the directory
+     * is not writable.
+     */
+    private File archiveFile(String fileName) {
+        if (fileStoreDirectoryDownloads == null || !fileStoreDirectoryDownloads.exists() || !fileStoreDirectoryDownloads.canWrite()) {
+            return null;
+        }
+        if (saveGZIPEncoded) {
+            return new File(fileStoreDirectoryDownloads, fileName);
+        }
+        return new File(fileStoreDirectoryDownloads, fileName.replace(".gz", ""));
     }
 
+    /**
+     * Names of the newest actual, +60 and +120 minutes files found by
+     * {@link #checkForNewData()} or delivered by a
+     * {@link RadolanUpdateService}.
+     *
+     * @return {actual, fc60, fc120}, entries are null before the first check.
+     */
+    public synchronized String[] getFileNames() {
+        return new String[]{actualFileName, fc60FileName, fc120FileName};
+    }
+
+    /**
+     * Downloads a gzip file and stores it inflated.
+     *
+     * @param url
+     * @param decodedFile
+     * @throws MalformedURLException
+     * @throws IOException
+     * @throws NoSuchAlgorithmException not thrown anymore, the shared
+     * {@link #HTTP_CLIENT} provides the SSL context.
+     * @throws KeyManagementException not thrown anymore
+     */
     public void downloaddecoded(String url, File decodedFile) throws MalformedURLException, IOException, NoSuchAlgorithmException, KeyManagementException {
-        URL myurl = new URL(url);
-        HttpsURLConnection con = (HttpsURLConnection) myurl.openConnection();
-        SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
-        sslContext.init(null, null, new SecureRandom());
-        con.setSSLSocketFactory(sslContext.getSocketFactory());
-        con.setReadTimeout(1000);
-
-        GZIPInputStream gZIPInputStream = new GZIPInputStream(con.getInputStream());
-        FileOutputStream fileOutputStream = new FileOutputStream(decodedFile);
-
-        int bytes_read;
-        byte[] buffer = new byte[1024];
-        while ((bytes_read = gZIPInputStream.read(buffer)) > 0) {
-            fileOutputStream.write(buffer, 0, bytes_read);
+        try (InputStream in = new GZIPInputStream(request(url), 65536);
+                OutputStream out = new FileOutputStream(decodedFile)) {
+            in.transferTo(out);
         }
-        gZIPInputStream.close();
-        fileOutputStream.close();
-        con.disconnect();
     }
 
+    /**
+     * Downloads a file as it is.
+     *
+     * @param url
+     * @param decodedFile
+     * @throws MalformedURLException
+     * @throws IOException
+     * @throws NoSuchAlgorithmException not thrown anymore, the shared
+     * {@link #HTTP_CLIENT} provides the SSL context.
+     * @throws KeyManagementException not thrown anymore
+     */
     public void downloadencoded(String url, File decodedFile) throws MalformedURLException, IOException, NoSuchAlgorithmException, KeyManagementException {
-        URL myurl = new URL(url);
-        HttpsURLConnection con = (HttpsURLConnection) myurl.openConnection();
-        SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
-        sslContext.init(null, null, new SecureRandom());
-        con.setSSLSocketFactory(sslContext.getSocketFactory());
-        con.setReadTimeout(1000);
-
-        InputStream inputStream = con.getInputStream();
-        FileOutputStream fileOutputStream = new FileOutputStream(decodedFile);
-
-        int bytes_read;
-        byte[] buffer = new byte[1024];
-        while ((bytes_read = inputStream.read(buffer)) > 0) {
-            fileOutputStream.write(buffer, 0, bytes_read);
+        try (InputStream in = request(url);
+                OutputStream out = new FileOutputStream(decodedFile)) {
+            in.transferTo(out);
         }
-        inputStream.close();
-        fileOutputStream.close();
-        con.disconnect();
     }
 
     @Override
@@ -289,97 +384,65 @@ public class DWD_RQ_Reader implements Rain_Reader {
         return System.currentTimeMillis() > nextUpdate;
     }
 
+    /**
+     * Poller of the {@link #urlRootRQ} listing, recreated if the URL changes.
+     *
+     * @return
+     */
+    public synchronized DWD_DirectoryPoller getPoller() {
+        if (poller == null || !poller.url.equals(urlRootRQ)) {
+            poller = new DWD_DirectoryPoller(urlRootRQ);
+        }
+        return poller;
+    }
+
+    /**
+     * Looks for a newer set of files in the listing of {@link #urlRootRQ}.
+     * An unchanged listing costs one conditional request.
+     */
     public void checkForNewData() {
         try {
-            boolean newVersion = true;
-            //URL to RQ product index
-            String httpsURL = "https://opendata.dwd.de/weather/radar/radvor/rq/";
-
-            URL myurl = new URL(httpsURL);
-
-            HttpsURLConnection con = (HttpsURLConnection) myurl.openConnection();
-            SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
-            sslContext.init(null, null, new SecureRandom());
-            con.setSSLSocketFactory(sslContext.getSocketFactory());
-            con.setReadTimeout(1000);
-
-            InputStream ins = con.getInputStream();
-            InputStreamReader isr = new InputStreamReader(ins);
-            BufferedReader in = new BufferedReader(isr);
-            String inputLine;
-//            System.out.println("cipher: " + con.getCipherSuite());
-            String[] actual = new String[3];
-            while ((inputLine = in.readLine()) != null) {
-                if (inputLine.startsWith("</pre><hr>")) {
-                    //Get out, when the end of content is reached.
-                    break;
-                }
-                actual[2] = actual[1];
-                actual[1] = actual[0];
-                actual[0] = inputLine;
-            }
-            in.close();
-
-            String line = actual[0].replaceAll("\\s++", " ");
-            String[] newestParts = line.split(" ");
-//            System.out.println("newsetparts[0]='"+newestParts[0]+"',   parts:"+newestParts.length+"  line='"+line+"'");
-            String fileLink = newestParts[1].substring(newestParts[1].indexOf("\"") + 1, newestParts[1].lastIndexOf("\""));
-            String date = newestParts[2];
-            String time = newestParts[3];
-            String length = newestParts[4];
-
-//            System.out.println("Found newest: " + fileLink + " @" + date + ", " + time + ", " + length + " bytes");
-            if (actualFileName != null) {
-                if (actualFileName.contains(fileLink.substring(0, 12))) {
-                    newVersion = false;
-                }
+            List<DWD_DirectoryPoller.Entry> entries = getPoller().poll();
+            if (entries.isEmpty()) {
+                return;
             }
-
-            if (fileLink.endsWith("_120.gz")) {
-                fc120FileName = fileLink;
-                fc60FileName = fileLink.replace("_120.gz", "_060.gz");
-                actualFileName = fileLink.replace("_120.gz", "_000.gz");
-            } else if (fileLink.endsWith("_060.gz")) {
-                fc60FileName = fileLink;
-                fc120FileName = fileLink.replace("_060.gz", "_120.gz");
-                actualFileName = fileLink.replace("_060.gz", "_000.gz");
-            } else if (fileLink.endsWith("_000.gz")) {
-                actualFileName = fileLink;
-                fc120FileName = fileLink.replace("_000.gz", "_120.gz");
-                fc60FileName = fileLink.replace("_000.gz", "_060.gz");
-            } else {
-                System.err.println("Do not understand file name '" + fileLink + "'");
-            }
-
-//            if (newVersion) {
-            GregorianCalendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
-            cal.set(Calendar.YEAR, Integer.parseInt(fileLink.substring(2, 4)) + 2000);
-            cal.set(Calendar.MONTH, Integer.parseInt(fileLink.substring(4, 6)) - 1);
-            cal.set(Calendar.DAY_OF_MONTH, Integer.parseInt(fileLink.substring(6, 8)));
-
-            cal.set(Calendar.HOUR_OF_DAY, Integer.parseInt(fileLink.substring(8, 10)));
-            cal.set(Calendar.MINUTE, Integer.parseInt(fileLink.substring(10, 12)));
-            cal.set(Calendar.SECOND, 0);
-            cal.set(Calendar.MILLISECOND, 0);
-            //Now override this information with the upload time from the website, because the upload is ~4 minutes after the filegeneration
-            String[] timeparts = time.split(":");
-            cal.set(Calendar.HOUR_OF_DAY, Integer.parseInt(timeparts[0]));
-            cal.set(Calendar.MINUTE, Integer.parseInt(timeparts[1]));
-
-//                System.out.println("upload:" + cal.getTime());
-            this.nextUpdate = cal.getTimeInMillis() + updateMS;
-//                System.out.println("update:" + new Date(nextUpdate));
-//            }    
-
+            setNewest(entries.get(entries.size() - 1));
         } catch (IOException ex) {
             Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (KeyManagementException ex) {
-            Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         } catch (Exception ex) {
             Logger.getLogger(DWD_RQ_Reader.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
+    /**
+     * Sets the names of the actual, +60 and +120 minutes files of the set
+     * the given file belongs to and the time of the next update.
+     *
+     * @param newest newest file of the listing
+     */
+    synchronized void setNewest(DWD_DirectoryPoller.Entry newest) {
+        String fileLink = newest.name;
+        if (fileLink.endsWith("_120.gz")) {
+            fc120FileName = fileLink;
+            fc60FileName = fileLink.replace("_120.gz", "_060.gz");
+            actualFileName = fileLink.replace("_120.gz", "_000.gz");
+        } else if (fileLink.endsWith("_060.gz")) {
+            fc60FileName = fileLink;
+            fc120FileName = fileLink.replace("_060.gz", "_120.gz");
+            actualFileName = fileLink.replace("_060.gz", "_000.gz");
+        } else if (fileLink.endsWith("_000.gz")) {
+            actualFileName = fileLink;
+            fc120FileName = fileLink.replace("_000.gz", "_120.gz");
+            fc60FileName = fileLink.replace("_000.gz", "_060.gz");
+        } else {
+            System.err.println("Do not understand file name '" + fileLink + "'");
+        }
+        //Upload time from the website, the upload is ~4 minutes after the file generation
+        this.nextUpdate = newest.lastModified + updateMS;
+    }
+
     public static void main1(String[] args) {
         DWD_RQ_Reader dwd = DWD_RQ_Reader_Hannover_Ricklingen();
         System.out.println("New Data available? " + dwd.newDataAvailable());
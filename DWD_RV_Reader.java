@@ -0,0 +1,316 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Decodes RADVOR RV nowcast archives (one tar file with a member for each
+ * lead time from 0 to 120 minutes in 5 minute steps) in one pass into a
+ * forecast cube. Members are decoded from memory directly into their slot
+ * (lead time / 5) of a {@link RadolanGridStack}, nothing is extracted to disk.
+ * The series of lead times of one cell is read with
+ * {@link RadolanGridStack#getCellSeries(int, int, int, int, int[])}. Values
+ * are scaled with {@link RadolanGridStack#getFactor()} ({@link #PRECISION}
+ * for RV). Slots of lead times missing in the archive are filled with
+ * {@link RadolanData#NAN} and are not set
+ * ({@link RadolanGridStack#isSet(int)}).
+ * <br>
+ * Archives can be plain tar, gzip compressed tar (*.tar.gz, *.tgz) or bzip2
+ * compressed tar (*.tar.bz2) as published by the DWD.
+ *
+ * @author saemann
+ */
+public class DWD_RV_Reader {
+
+    public static String urlRootRV = "https://opendata.dwd.de/weather/radar/composite/rv/";
+
+    /**
+     * Number of lead times (slots) of the cube.
+     */
+    public static final int LEAD_TIMES = 25;
+
+    /**
+     * Minutes between two lead times.
+     */
+    public static final int LEAD_TIME_STEP = 5;
+
+    /**
+     * Precision of the RV values [mm].
+     */
+    public static final double PRECISION = 0.01;
+
+    private static final int BLOCK = 512;
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Decodes an archive file.
+     *
+     * @param archive *.tar, *.tar.gz, *.tgz or *.tar.bz2
+     * @return cube with one slot per lead time
+     * @throws IOException if the archive can not be read or contains no
+     * Radolan member.
+     */
+    public static RadolanGridStack readFile(File archive) throws IOException {
+        try (InputStream in = new FileInputStream(archive)) {
+            return read(uncompressed(archive.getName(), in));
+        }
+    }
+
+    /**
+     * Downloads and decodes an archive of the RV directory. The archive is
+     * decoded while it is received.
+     *
+     * @param fileName name of the archive in {@link #urlRootRV}
+     * @return cube with one slot per lead time
+     */
+    public static CompletableFuture<RadolanGridStack> readAsync(String fileName) {
+        return CompletableFuture.supplyAsync(() -> {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(urlRootRV + fileName))
+                    .timeout(Duration.ofMillis(DWD_RQ_Reader.requestTimeoutMS))
+                    .build();
+            try {
+                HttpResponse<InputStream> response = DWD_RQ_Reader.HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                try (InputStream body = response.body()) {
+                    if (response.statusCode() != 200) {
+                        throw new IOException("HTTP " + response.statusCode() + " for " + response.uri());
+                    }
+                    return read(uncompressed(fileName, body));
+                }
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(new IOException("Interrupted while requesting " + fileName, ex));
+            }
+        }, DWD_RQ_Reader.FETCH_EXECUTOR);
+    }
+
+    /**
+     * Inflates the archive according to its name.
+     */
+    static InputStream uncompressed(String name, InputStream in) throws IOException {
+        if (name.endsWith(".gz") || name.endsWith(".tgz")) {
+            return new GZIPInputStream(in, STREAM_BUFFER_SIZE);
+        }
+        if (name.endsWith(".bz2")) {
+            return new BZip2CompressorInputStream(new BufferedInputStream(in, STREAM_BUFFER_SIZE));
+        }
+        return new BufferedInputStream(in, STREAM_BUFFER_SIZE);
+    }
+
+    /**
+     * Decodes all members of an uncompressed tar stream. Members may be
+     * gzip compressed themselves. Members with a lead time outside of the
+     * cube are skipped. The stream is not closed.
+     *
+     * @param tar uncompressed tar content
+     * @return cube with one slot per lead time, grid size of the first member
+     * @throws IOException if the stream is no tar archive, contains no
+     * Radolan member, members of different grid size or precision or a grid
+     * without known projection.
+     */
+    public static RadolanGridStack read(InputStream tar) throws IOException {
+        byte[] block = new byte[BLOCK];
+        byte[] content = new byte[0];
+        RadolanGridStack cube = null;
+        String longName = null;
+        while (readBlock(tar, block)) {
+            if (isZero(block)) {
+                //End of archive marker
+                break;
+            }
+            String name = longName != null ? longName : name(block);
+            longName = null;
+            long size = octal(block, 124, 12);
+            byte type = block[156];
+            if (size > Integer.MAX_VALUE - BLOCK) {
+                throw new IOException("Member " + name + " is too large: " + size + " bytes.");
+            }
+            int padded = (int) ((size + BLOCK - 1) / BLOCK * BLOCK);
+            if (content.length < padded) {
+                content = new byte[padded];
+            }
+            readFully(tar, content, padded, name);
+            if (type == 'L') {
+                //GNU long name of the next member
+                longName = new String(content, 0, (int) size, StandardCharsets.ISO_8859_1).trim();
+                continue;
+            }
+            if ((type != '0' && type != 0) || size == 0) {
+                //Directories, links and pax headers
+                continue;
+            }
+            ByteBuffer bb;
+            if (size > 2 && (content[0] & 0xFF) == 0x1F && (content[1] & 0xFF) == 0x8B) {
+                try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(content, 0, (int) size))) {
+                    bb = RadolanReader.readFully(in);
+                }
+            } else {
+                bb = ByteBuffer.wrap(content, 0, (int) size);
+            }
+            RadolanHeader header = RadolanHeader.parse(bb);
+            int k = header.leadTime < 0 ? 0 : header.leadTime / LEAD_TIME_STEP;
+            if (k >= LEAD_TIMES || header.leadTime % LEAD_TIME_STEP != 0) {
+                Logger.getLogger(DWD_RV_Reader.class.getName()).log(Level.WARNING, "Skip member {0} with lead time {1} min.", new Object[]{name, header.leadTime});
+                continue;
+            }
+            if (cube == null) {
+                if (RadolanProjection.forGrid(header.x, header.y, header.text) == null) {
+                    throw new IOException("No projection known for the " + header.x + "x" + header.y + " grid of member " + name + ".");
+                }
+                cube = RadolanGridStack.allocateDirect(header.x, header.y, LEAD_TIMES);
+            }
+            RadolanReader.decode(bb, header, cube, k, name);
+        }
+        if (cube == null) {
+            throw new IOException("No Radolan member found in archive.");
+        }
+        fillMissing(cube);
+        return cube;
+    }
+
+    /**
+     * Fills the slots of lead times without member with missing values.
+     */
+    private static void fillMissing(RadolanGridStack cube) {
+        short[] row = new short[cube.getX()];
+        Arrays.fill(row, RadolanData.NAN);
+        for (int k = 0; k < cube.getCapacity(); k++) {
+            if (cube.isSet(k)) {
+                continue;
+            }
+            ShortBuffer frame = cube.frame(k);
+            for (int i = 0; i < cube.getY(); i++) {
+                frame.put(row);
+            }
+        }
+    }
+
+    /**
+     * Reads the next 512 byte block.
+     *
+     * @return false at the end of the stream
+     * @throws IOException if the stream ends within the block.
+     */
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int length = 0;
+        while (length < BLOCK) {
+            int bytes_read = in.read(block, length, BLOCK - length);
+            if (bytes_read < 0) {
+                if (length == 0) {
+                    return false;
+                }
+                throw new IOException("Archive ends within a header block.");
+            }
+            length += bytes_read;
+        }
+        return true;
+    }
+
+    private static void readFully(InputStream in, byte[] target, int length, String name) throws IOException {
+        int filled = 0;
+        while (filled < length) {
+            int bytes_read = in.read(target, filled, length - filled);
+            if (bytes_read < 0) {
+                throw new IOException("Archive ends within member " + name);
+            }
+            filled += bytes_read;
+        }
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Member name with the ustar prefix.
+     */
+    private static String name(byte[] block) {
+        String name = string(block, 0, 100);
+        if (block[257] == 'u' && block[258] == 's' && block[259] == 't' && block[260] == 'a' && block[261] == 'r') {
+            String prefix = string(block, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String string(byte[] block, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && block[end] != 0) {
+            end++;
+        }
+        return new String(block, offset, end - offset, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Octal number of a header field, terminated by space or NUL.
+     *
+     * @throws IOException for other characters or binary (base-256) numbers.
+     */
+    private static long octal(byte[] block, int offset, int length) throws IOException {
+        if ((block[offset] & 0x80) != 0) {
+            throw new IOException("Binary size fields are not supported.");
+        }
+        long value = 0;
+        for (int p = offset; p < offset + length; p++) {
+            byte b = block[p];
+            if (b >= '0' && b <= '7') {
+                value = value * 8 + (b - '0');
+            } else if (b == 0 || (b == ' ' && value > 0)) {
+                break;
+            } else if (b != ' ') {
+                throw new IOException("No tar header: unexpected character '" + (char) b + "' in octal field.");
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Append-only archive of decoded Radolan frames of one product and lead
+ * time. Frames are stored as difference to the previous frame, with runs of
+ * unchanged cells compressed to their length. Every
+ * {@link #getKeyFrameInterval()}th frame is stored completely, so reading a
+ * frame needs at most this number of fast decoding steps.
+ * <br>
+ * Two files are used: the data file with the encoded frames and an index
+ * file ("*.idx") with a 32 byte header (magic, version, x, y) and one 32 byte
+ * entry per frame (production time, offset, length, lead time, factor,
+ * product, key frame flag). Frames must be appended in order of their
+ * production time.
+ *
+ * @author saemann
+ */
+public class RadolanArchive implements Closeable {
+
+    private static final int MAGIC = 0x52444152;//"RDAR"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int ENTRY_BYTES = 32;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * Default number of frames between two completely stored frames.
+     */
+    public static final int DEFAULT_KEY_FRAME_INTERVAL = 12;
+
+    /**
+     * Number of frames between two completely stored frames.
+     */
+    private final int keyFrameInterval;
+
+    private final FileChannel data, index;
+    private int x, y;
+    private int size;
+    private long[] times = new long[64];
+    private long[] offsets = new long[64];
+    private int[] lengths = new int[64];
+    private int[] leadTimes = new int[64];
+    private float[] factors = new float[64];
+    private String[] products = new String[64];
+    private boolean[] keyFrames = new boolean[64];
+
+    /**
+     * Last appended frame. Base for the next difference.
+     */
+    private short[] last;
+    private int sinceKeyFrame;
+
+    private RadolanArchive(FileChannel data, FileChannel index, int keyFrameInterval) {
+        this.data = data;
+        this.index = index;
+        this.keyFrameInterval = keyFrameInterval;
+    }
+
+    /**
+     * Opens an archive or creates a new one if the file does not exist. Key
+     * frames are stored every {@link #DEFAULT_KEY_FRAME_INTERVAL} frames.
+     *
+     * @param file data file. The index is stored next to it ("*.idx").
+     * @return
+     * @throws IOException if the files can not be read or the index of an
+     * existing data file is missing or damaged.
+     */
+    public static RadolanArchive open(File file) throws IOException {
+        return open(file, DEFAULT_KEY_FRAME_INTERVAL);
+    }
+
+    /**
+     * Opens an archive or creates a new one if the file does not exist. The
+     * data file is never truncated: without a valid index an existing data
+     * file is left unchanged and an IOException is thrown.
+     *
+     * @param file data file. The index is stored next to it ("*.idx").
+     * @param keyFrameInterval number of frames between two completely stored
+     * frames of this instance's appends.
+     * @return
+     * @throws IOException if the files can not be read or the index of an
+     * existing data file is missing or damaged.
+     */
+    public static RadolanArchive open(File file, int keyFrameInterval) throws IOException {
+        if (keyFrameInterval < 1) {
+            throw new IllegalArgumentException("Key frame interval must be positive: " + keyFrameInterval);
+        }
+        File indexFile = new File(file.getPath() + ".idx");
+        if (file.length() > 0 && !indexFile.exists()) {
+            throw new IOException("Index " + indexFile + " of archive " + file + " is missing. The data file is left unchanged.");
+        }
+        FileChannel data = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel index;
+        try {
+            index = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+        RadolanArchive archive = new RadolanArchive(data, index, keyFrameInterval);
+        try {
+            archive.readIndex();
+        } catch (IOException e) {
+            archive.close();
+            throw e;
+        }
+        return archive;
+    }
+
+    private void readIndex() throws IOException {
+        long indexSize = index.size();
+        long dataSize = data.size();
+        if (indexSize < HEADER_BYTES) {
+            if (dataSize > 0) {
+                throw new IOException("Index of archive with " + dataSize + " bytes of frames is incomplete. The data file is left unchanged.");
+            }
+            //New archive
+            index.truncate(0);
+            return;
+        }
+        ByteBuffer bb = ByteBuffer.allocate((int) indexSize).order(ORDER);
+        readFully(index, bb, 0);
+        bb.flip();
+        if (bb.getInt() != MAGIC) {
+            throw new IOException("Not a Radolan archive index.");
+        }
+        int version = bb.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported archive version " + version);
+        }
+        x = bb.getInt();
+        y = bb.getInt();
+        bb.position(HEADER_BYTES);
+        while (bb.remaining() >= ENTRY_BYTES) {
+            long time = bb.getLong();
+            long offset = bb.getLong();
+            int length = bb.getInt();
+            int leadTime = bb.getInt();
+            float factor = bb.getFloat();
+            String product = new String(new char[]{(char) bb.get(), (char) bb.get()});
+            boolean keyFrame = bb.get() != 0;
+            bb.get();
+            if (offset + length > dataSize) {
+                //Incomplete frame after a crash
+                break;
+            }
+            ensureCapacity(size + 1);
+            times[size] = time;
+            offsets[size] = offset;
+            lengths[size] = length;
+            leadTimes[size] = leadTime;
+            factors[size] = factor;
+            products[size] = product;
+            keyFrames[size] = keyFrame;
+            size++;
+        }
+        //Drop incomplete index entries. Bytes of an incomplete frame behind
+        //the last indexed frame are overwritten by the next append.
+        index.truncate(HEADER_BYTES + (long) size * ENTRY_BYTES);
+        if (size > 0) {
+            last = readGrid(size - 1);
+            sinceKeyFrame = size - 1 - keyFrameBefore(size - 1);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= times.length) {
+            return;
+        }
+        int c = Math.max(capacity, times.length * 2);
+        times = Arrays.copyOf(times, c);
+        offsets = Arrays.copyOf(offsets, c);
+        lengths = Arrays.copyOf(lengths, c);
+        leadTimes = Arrays.copyOf(leadTimes, c);
+        factors = Arrays.copyOf(factors, c);
+        products = Arrays.copyOf(products, c);
+        keyFrames = Arrays.copyOf(keyFrames, c);
+    }
+
+    /**
+     * Appends a frame to the end of the archive.
+     *
+     * @param frame
+     * @throws IOException if the frame is not younger than the last frame or
+     * its grid size differs from the archive.
+     */
+    public synchronized void append(RadolanData frame) throws IOException {
+        long time = frame.productionTime.getTimeInMillis();
+        if (size == 0) {
+            x = frame.x;
+            y = frame.y;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+            header.putInt(MAGIC).putInt(VERSION).putInt(x).putInt(y);
+            header.clear();
+            writeFully(index, header, 0);
+        } else {
+            if (frame.x != x || frame.y != y) {
+                throw new IOException("Grid " + frame.x + "x" + frame.y + " does not fit into archive of " + x + "x" + y);
+            }
+            if (time <= times[size - 1]) {
+                throw new IOException("Frame of " + frame.productionTime.getTime() + " is not younger than the last archived frame.");
+            }
+        }
+        short[] grid = frame.compactGrid();
+        boolean keyFrame = last == null || sinceKeyFrame + 1 >= keyFrameInterval;
+        byte[] encoded = encode(grid, keyFrame ? null : last);
+        long offset = size == 0 ? 0 : offsets[size - 1] + lengths[size - 1];
+        writeFully(data, ByteBuffer.wrap(encoded), offset);
+
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES).order(ORDER);
+        entry.putLong(time).putLong(offset).putInt(encoded.length).putInt(frame.leadTime).putFloat(frame.factor);
+        String product = frame.product != null ? frame.product : "  ";
+        entry.put((byte) product.charAt(0)).put((byte) (product.length() > 1 ? product.charAt(1) : ' '));
+        entry.put((byte) (keyFrame ? 1 : 0));
+        entry.clear();
+        writeFully(index, entry, HEADER_BYTES + (long) size * ENTRY_BYTES);
+
+        ensureCapacity(size + 1);
+        times[size] = time;
+        offsets[size] = offset;
+        lengths[size] = encoded.length;
+        leadTimes[size] = frame.leadTime;
+        factors[size] = frame.factor;
+        products[size] = product;
+        keyFrames[size] = keyFrame;
+        size++;
+        last = grid.clone();
+        sinceKeyFrame = keyFrame ? 0 : sinceKeyFrame + 1;
+    }
+
+    /**
+     *
+     * @return number of frames between two completely stored frames.
+     */
+    public int getKeyFrameInterval() {
+        return keyFrameInterval;
+    }
+
+    /**
+     *
+     * @return number of archived frames
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @param n frame number
+     * @return production time in UTC milliseconds
+     */
+    public synchronized long getProductionTime(int n) {
+        return times[n];
+    }
+
+    /**
+     * Finds a frame by its production time.
+     *
+     * @param productionTime UTC milliseconds
+     * @return frame number or -1
+     */
+    public synchronized int indexOf(long productionTime) {
+        int n = Arrays.binarySearch(times, 0, size, productionTime);
+        return n >= 0 ? n : -1;
+    }
+
+    /**
+     * Reads the frame with this production time.
+     *
+     * @param productionTime UTC milliseconds
+     * @return frame or null if it is not in the archive.
+     * @throws IOException
+     */
+    public RadolanData readTime(long productionTime) throws IOException {
+        int n = indexOf(productionTime);
+        return n < 0 ? null : read(n);
+    }
+
+    /**
+     * Reads frame n.
+     *
+     * @param n frame number
+     * @return
+     * @throws IOException
+     */
+    public synchronized RadolanData read(int n) throws IOException {
+        short[] grid = readGrid(n);
+        GregorianCalendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        cal.setTimeInMillis(times[n]);
+        RadolanData frame = RadolanReader.createData(products[n], grid, x, y, leadTimes[n], cal);
+        frame.factor = factors[n];
+        frame.offset = (float) RadolanProducts.forProduct(products[n]).offset();
+        return frame;
+    }
+
+    private int keyFrameBefore(int n) {
+        int k = n;
+        while (k > 0 && !keyFrames[k]) {
+            k--;
+        }
+        return k;
+    }
+
+    /**
+     * Decodes the last key frame before n and applies all following
+     * differences.
+     */
+    private short[] readGrid(int n) throws IOException {
+        if (n < 0 || n >= size) {
+            throw new IndexOutOfBoundsException("Frame " + n + " not in archive of " + size + " frames.");
+        }
+        if (n == size - 1 && last != null) {
+            return last.clone();
+        }
+        int k = keyFrameBefore(n);
+        //Read all needed frames at once
+        long start = offsets[k];
+        ByteBuffer bb = ByteBuffer.allocate((int) (offsets[n] + lengths[n] - start));
+        readFully(data, bb, start);
+        byte[] bytes = bb.array();
+        short[] grid = new short[x * y];
+        for (int f = k; f <= n; f++) {
+            decode(bytes, (int) (offsets[f] - start), grid);
+        }
+        return grid;
+    }
+
+    /**
+     * Encodes the differences to the previous grid as alternating varints:
+     * number of unchanged cells, number of changed cells and the zigzag
+     * encoded differences of the changed cells.
+     *
+     * @param grid
+     * @param previous null for a key frame
+     * @return
+     */
+    static byte[] encode(short[] grid, short[] previous) {
+        byte[] out = new byte[1024];
+        int p = 0;
+        int k = 0;
+        while (k < grid.length) {
+            int start = k;
+            while (k < grid.length && grid[k] == (previous == null ? 0 : previous[k])) {
+                k++;
+            }
+            int unchanged = k - start;
+            start = k;
+            while (k < grid.length && grid[k] != (previous == null ? 0 : previous[k])) {
+                k++;
+            }
+            int changed = k - start;
+            //Worst case: 3 bytes per difference + 2 run lengths
+            if (p + 10 + changed * 3 > out.length) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, p + 10 + changed * 3));
+            }
+            p = writeVarint(out, p, unchanged);
+            p = writeVarint(out, p, changed);
+            for (int c = start; c < k; c++) {
+                int difference = grid[c] - (previous == null ? 0 : previous[c]);
+                p = writeVarint(out, p, (difference << 1) ^ (difference >> 31));
+            }
+        }
+        return Arrays.copyOf(out, p);
+    }
+
+    /**
+     * Applies the encoded differences to the grid. For a key frame the grid
+     * must be zero before.
+     *
+     * @param in encoded frame
+     * @param p start position in
+     * @param grid values of the previous frame, replaced by the decoded
+     * frame.
+     * @return position after the frame
+     */
+    static int decode(byte[] in, int p, short[] grid) {
+        int k = 0;
+        int[] value = new int[1];
+        while (k < grid.length) {
+            p = readVarint(in, p, value);
+            k += value[0];
+            p = readVarint(in, p, value);
+            int end = k + value[0];
+            for (; k < end; k++) {
+                p = readVarint(in, p, value);
+                int zigzag = value[0];
+                grid[k] += (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        return p;
+    }
+
+    private static int writeVarint(byte[] out, int p, int v) {
+        while ((v & ~0x7F) != 0) {
+            out[p++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[p++] = (byte) v;
+        return p;
+    }
+
+    private static int readVarint(byte[] in, int p, int[] value) {
+        int v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in[p++];
+            v |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        value[0] = v;
+        return p;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, position + bb.position()) < 0) {
+                throw new IOException("Unexpected end of archive file.");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+        while (bb.hasRemaining()) {
+            channel.write(bb, position + bb.position());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            data.close();
+        } finally {
+            index.close();
+        }
+    }
+}
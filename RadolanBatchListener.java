@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.nio.file.Path;
+
+/**
+ * Receives the results of
+ * {@link RadolanReader#readAll(java.util.Collection, java.util.concurrent.Executor, int, rain.radolan.RadolanBatchListener)}.
+ * Methods are called from the thread that started the batch, one file after
+ * the other in order of production time.
+ *
+ * @author saemann
+ */
+public interface RadolanBatchListener {
+
+    /**
+     * File has been decoded.
+     *
+     * @param file
+     * @param data
+     */
+    public void decoded(Path file, RadolanData data);
+
+    /**
+     * File could not be read or decoded.
+     *
+     * @param file
+     * @param exception cause
+     */
+    public void failed(Path file, Exception exception);
+}
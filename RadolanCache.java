@@ -0,0 +1,282 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Process-wide cache of decoded frames, shared by all readers and viewers.
+ * Downloaded frames are keyed by their DWD file name without the ".gz"
+ * suffix, which contains product and production time. Local files are keyed
+ * by their canonical path, modification time and length, so a replaced file
+ * is decoded again. The least recently used frames are evicted when the
+ * estimated memory of all frames exceeds {@link #maxBytes}.
+ * <br>
+ * Frames are shared and read-only ({@link RadolanData#isReadOnly()}), a hit
+ * copies nothing. Callers that need to modify a frame ask for a copy with
+ * {@link RadolanData#copy()}.
+ *
+ * @author saemann
+ */
+public class RadolanCache {
+
+    /**
+     * Upper limit for the memory of all cached frames [bytes].
+     */
+    public static long maxBytes = 256L * 1024 * 1024;
+
+    private static final LinkedHashMap<String, RadolanData> FRAMES = new LinkedHashMap<>(32, 0.75f, true);
+    /**
+     * Frames currently decoded. Concurrent requests wait for the same result.
+     */
+    private static final HashMap<String, CompletableFuture<RadolanData>> LOADING = new HashMap<>();
+
+    private static long bytes = 0;
+    private static long hits = 0, misses = 0, evictions = 0;
+
+    /**
+     * Decodes a frame.
+     */
+    public interface Loader {
+
+        public RadolanData load() throws IOException;
+    }
+
+    /**
+     * Cache key of a file name.
+     *
+     * @param fileName e.g. RQ1910171200_000.gz
+     * @return name without ".gz"
+     */
+    public static String key(String fileName) {
+        return fileName.endsWith(".gz") ? fileName.substring(0, fileName.length() - 3) : fileName;
+    }
+
+    /**
+     * Cache key of a local file.
+     *
+     * @param file
+     * @return canonical path with modification time and length.
+     * @throws IOException if the canonical path can not be resolved.
+     */
+    public static String key(File file) throws IOException {
+        return file.getCanonicalPath() + "@" + file.lastModified() + ":" + file.length();
+    }
+
+    /**
+     * Cached frame or a newly decoded frame of a raw or gzip file.
+     *
+     * @param file
+     * @return shared read-only frame
+     * @throws IOException
+     */
+    public static RadolanData readFile(File file) throws IOException {
+        return get(key(file), () -> RadolanReader.readFile(file, true));
+    }
+
+    /**
+     *
+     * @param key
+     * @return shared read-only frame or null. Counts as hit or miss.
+     */
+    public static RadolanData get(String key) {
+        RadolanData data;
+        synchronized (RadolanCache.class) {
+            data = FRAMES.get(key);
+            if (data != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Shared cached frame for read-only use within this package. Does not
+     * count as hit or miss.
+     *
+     * @param key
+     * @return cached frame or null.
+     */
+    static synchronized RadolanData peek(String key) {
+        return FRAMES.get(key);
+    }
+
+    /**
+     * Cached frame or the result of the loader, which is then cached. The
+     * loader is called once for concurrent requests of the same key.
+     *
+     * @param key
+     * @param loader
+     * @return shared read-only frame
+     * @throws IOException from the loader
+     */
+    public static RadolanData get(String key, Loader loader) throws IOException {
+        CompletableFuture<RadolanData> loading;
+        boolean load = false;
+        synchronized (RadolanCache.class) {
+            RadolanData data = FRAMES.get(key);
+            if (data != null) {
+                hits++;
+                return data;
+            }
+            misses++;
+            loading = LOADING.get(key);
+            if (loading == null) {
+                loading = new CompletableFuture<>();
+                LOADING.put(key, loading);
+                load = true;
+            }
+        }
+        if (load) {
+            try {
+                RadolanData data = loader.load();
+                store(key, data);
+                loading.complete(data);
+            } catch (IOException | RuntimeException ex) {
+                loading.completeExceptionally(ex);
+            } finally {
+                synchronized (RadolanCache.class) {
+                    LOADING.remove(key);
+                }
+            }
+        }
+        try {
+            return loading.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + key, ex);
+        } catch (ExecutionException | CompletionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Adds a frame and evicts the least recently used frames if the memory
+     * limit is exceeded.
+     *
+     * @param key
+     * @param data copied, later changes are not seen by the cache.
+     */
+    public static void put(String key, RadolanData data) {
+        store(key, data.copy());
+    }
+
+    private static synchronized void store(String key, RadolanData data) {
+        data.share();
+        RadolanData old = FRAMES.put(key, data);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+        bytes += sizeOf(data);
+        Iterator<Map.Entry<String, RadolanData>> it = FRAMES.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, RadolanData> eldest = it.next();
+            if (eldest.getValue() == data) {
+                //Keep the new frame even if it exceeds the limit alone
+                continue;
+            }
+            bytes -= sizeOf(eldest.getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Estimated memory of a frame [bytes].
+     *
+     * @param data
+     * @return
+     */
+    static long sizeOf(RadolanData data) {
+        long cells = (long) data.x * data.y;
+        return data.values != null ? cells * 4 + data.y * 16L : cells * 2;
+    }
+
+    public static synchronized void remove(String key) {
+        RadolanData old = FRAMES.remove(key);
+        if (old != null) {
+            bytes -= sizeOf(old);
+        }
+    }
+
+    public static synchronized void clear() {
+        FRAMES.clear();
+        bytes = 0;
+    }
+
+    /**
+     *
+     * @return number of cached frames
+     */
+    public static synchronized int size() {
+        return FRAMES.size();
+    }
+
+    /**
+     *
+     * @return estimated memory of all cached frames [bytes]
+     */
+    public static synchronized long getBytes() {
+        return bytes;
+    }
+
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+    public static synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public static synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     *
+     * @return e.g. "12 frames, 19 MB, hits 340, misses 12, evictions 0"
+     */
+    public static synchronized String getStatistics() {
+        return FRAMES.size() + " frames, " + (bytes / (1024 * 1024)) + " MB, hits " + hits + ", misses " + misses + ", evictions " + evictions;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Areal precipitation (mean, maximum, volume) over catchment polygons.
+ * Polygons are rasterised once against the Radolan grid into a list of cell
+ * indices with the covered fraction of each cell. Every frame is then reduced
+ * over these lists only.
+ *
+ * @author saemann
+ */
+public class RadolanCatchments {
+
+    /**
+     * Sub samples per cell and direction to estimate the covered fraction.
+     */
+    public static int subSamples = 5;
+
+    /**
+     * Area of one grid cell [m^2] for grids without known projection.
+     * Otherwise the exact cell areas of {@link RadolanProjection#getCellAreas()}
+     * are used.
+     */
+    public static double cellArea = 1000. * 1000.;
+
+    /**
+     * Grid the polygons are rasterised to.
+     */
+    private final RadolanData grid;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<int[]> cells = new ArrayList<>();
+    private final List<float[]> weights = new ArrayList<>();
+
+    /**
+     * Result of one frame.
+     */
+    public static class Result {
+
+        /**
+         * Weighted mean value of the covered cells in product units (e.g.
+         * mm/h for RQ). NaN if no covered cell has a value.
+         */
+        public final double[] mean;
+        /**
+         * Maximum value of all (partially) covered cells in product units.
+         */
+        public final double[] max;
+        /**
+         * Mean value times covered area: [unit*m^2/1000], e.g. m^3/h for RQ or
+         * m^3 for RW. Cells without value do not contribute.
+         */
+        public final double[] volume;
+
+        public Result(int n) {
+            mean = new double[n];
+            max = new double[n];
+            volume = new double[n];
+        }
+    }
+
+    /**
+     *
+     * @param grid defines the grid size and location. Values are not used.
+     */
+    public RadolanCatchments(RadolanData grid) {
+        this.grid = grid;
+    }
+
+    /**
+     * Rasterises a polygon given by its corner coordinates.
+     *
+     * @param name
+     * @param lat latitudes [deg N] of the corners
+     * @param lon longitudes [deg E] of the corners
+     * @return index of the catchment in the results
+     */
+    public int addPolygon(String name, double[] lat, double[] lon) {
+        double[] pi = new double[lat.length];
+        double[] pj = new double[lat.length];
+        grid.getProjection().projectToDataIndices(lat, lon, pi, pj);
+        return addPolygonIndices(name, pi, pj);
+    }
+
+    /**
+     * Rasterises a polygon given in (continuous) grid indices.
+     *
+     * @param name
+     * @param pi rows of the corners (0=South)
+     * @param pj columns of the corners (0=West)
+     * @return index of the catchment in the results
+     */
+    public int addPolygonIndices(String name, double[] pi, double[] pj) {
+        double minI = Double.POSITIVE_INFINITY, maxI = Double.NEGATIVE_INFINITY;
+        double minJ = Double.POSITIVE_INFINITY, maxJ = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < pi.length; k++) {
+            minI = Math.min(minI, pi[k]);
+            maxI = Math.max(maxI, pi[k]);
+            minJ = Math.min(minJ, pj[k]);
+            maxJ = Math.max(maxJ, pj[k]);
+        }
+        int i0 = Math.max(0, (int) Math.floor(minI));
+        int i1 = Math.min(grid.y - 1, (int) Math.floor(maxI));
+        int j0 = Math.max(0, (int) Math.floor(minJ));
+        int j1 = Math.min(grid.x - 1, (int) Math.floor(maxJ));
+
+        int capacity = Math.max(0, (i1 - i0 + 1) * (j1 - j0 + 1));
+        int[] c = new int[capacity];
+        float[] w = new float[capacity];
+        int n = 0;
+        double step = 1. / subSamples;
+        for (int i = i0; i <= i1; i++) {
+            for (int j = j0; j <= j1; j++) {
+                int inside = 0;
+                for (int si = 0; si < subSamples; si++) {
+                    double qi = i + (si + 0.5) * step;
+                    for (int sj = 0; sj < subSamples; sj++) {
+                        if (contains(pi, pj, qi, j + (sj + 0.5) * step)) {
+                            inside++;
+                        }
+                    }
+                }
+                if (inside > 0) {
+                    c[n] = i * grid.x + j;
+                    w[n] = inside / (float) (subSamples * subSamples);
+                    n++;
+                }
+            }
+        }
+        names.add(name);
+        cells.add(Arrays.copyOf(c, n));
+        weights.add(Arrays.copyOf(w, n));
+        return names.size() - 1;
+    }
+
+    /**
+     * Even-odd rule point in polygon test.
+     */
+    private static boolean contains(double[] pi, double[] pj, double qi, double qj) {
+        boolean inside = false;
+        for (int a = 0, b = pi.length - 1; a < pi.length; b = a++) {
+            if ((pi[a] > qi) != (pi[b] > qi)
+                    && qj < (pj[b] - pj[a]) * (qi - pi[a]) / (pi[b] - pi[a]) + pj[a]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     *
+     * @return number of catchments
+     */
+    public int size() {
+        return names.size();
+    }
+
+    public String getName(int catchment) {
+        return names.get(catchment);
+    }
+
+    /**
+     *
+     * @param catchment
+     * @return indices (i*x+j) of the covered cells. Not copied.
+     */
+    public int[] getCells(int catchment) {
+        return cells.get(catchment);
+    }
+
+    /**
+     *
+     * @param catchment
+     * @return covered fraction of the cells. Not copied.
+     */
+    public float[] getWeights(int catchment) {
+        return weights.get(catchment);
+    }
+
+    /**
+     * Calculates mean, maximum and volume of all catchments for one frame.
+     * Catchments are processed in parallel.
+     *
+     * @param frame values with the same grid size as the rasterisation.
+     * @return
+     */
+    public Result reduce(RadolanData frame) {
+        if (frame.x != grid.x || frame.y != grid.y) {
+            throw new IllegalArgumentException("Grid " + frame.x + "x" + frame.y + " differs from catchment grid " + grid.x + "x" + grid.y);
+        }
+        //Read the backing storage of the frame, nothing is converted
+        final int[][] values = frame.values;
+        final short[] compact = values == null ? frame.compactGrid() : null;
+        final int x = frame.x;
+        final double factor = frame.factor;
+        final double offset = frame.offset;
+        //Exact cell areas [km^2] of known grids, also of cropped grids
+        RadolanProjection projection = grid.findProjection();
+        final float[] areas = projection != null ? projection.getCellAreas() : null;
+        final Result result = new Result(size());
+        IntStream.range(0, size()).parallel().forEach(k -> {
+            int[] c = cells.get(k);
+            float[] w = weights.get(k);
+            double sum = 0, sumWeights = 0, sumVolume = 0;
+            int max = Integer.MIN_VALUE;
+            for (int n = 0; n < c.length; n++) {
+                int v = compact != null ? RadolanData.toInt(compact[c[n]]) : values[c[n] / x][c[n] % x];
+                if (v == Integer.MIN_VALUE) {
+                    continue;
+                }
+                sum += w[n] * v;
+                sumWeights += w[n];
+                sumVolume += w[n] * v * (areas != null ? areas[c[n]] * 1E6 : cellArea);
+                if (v > max) {
+                    max = v;
+                }
+            }
+            result.mean[k] = sumWeights > 0 ? sum / sumWeights * factor + offset : Double.NaN;
+            result.max[k] = max == Integer.MIN_VALUE ? Double.NaN : max * factor + offset;
+            result.volume[k] = sumVolume * factor / 1000.;
+        });
+        return result;
+    }
+}
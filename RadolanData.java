@@ -23,22 +23,46 @@
  */
 package rain.radolan;
 
+import java.nio.ShortBuffer;
 import java.util.GregorianCalendar;
 
 /**
  * Information and data of one File from DWD. Radolan, Radvor data storage.
+ * <br>
+ * Frames of the {@link RadolanCache} are shared and read-only
+ * ({@link #isReadOnly()}): their values are only handed out as copies or
+ * read-only views and their fields must not be changed. {@link #copy()}
+ * creates a modifiable frame.
  *
  * @author saemann
  */
 public class RadolanData {
 
+    /**
+     * Marker for missing values (error flag) in the compact short[] storage.
+     * Corresponds to Integer.MIN_VALUE in the int based accessors.
+     */
+    public static final short NAN = Short.MIN_VALUE;
+
     public String product;
 
     /**
      * Values as integer stored in the file. beginning with lower-left corner.
      * first index i: rows (horizontal) 0=South ; secondindex j: column 0=West
+     * <br>
+     * Set by {@link RadolanReader#readFile(java.io.File)},
+     * {@link RadolanReader#readRawData(java.io.File)} and for objects created
+     * with int[][] values. Compact frames keep their values in
+     * {@link #getGrid()} and this field is null; use {@link #toIntArray()} to
+     * get an int[][] copy of them.
      */
     public int[][] values;
+
+    /**
+     * Compact row-major storage (index i*x+j) with {@link #NAN} for missing
+     * values. null if values are stored in the int[][] array.
+     */
+    private short[] grid;
     /**
      * number of horizontal elements
      */
@@ -57,11 +81,34 @@ public class RadolanData {
      */
     public float factor = 0.1f;// RQ has factor E-1;
 
+    /**
+     * Offset added after multiplication with the factor, e.g. -32.5 for
+     * RVP6 units of RX/WX (dBZ = value * 0.5 - 32.5).
+     */
+    public float offset = 0;
+
+    /**
+     * Precision of the PR entry of the file, e.g. 0.01 for "E-02". NaN if
+     * the file had no PR entry or the frame was not read from a file.
+     */
+    public double precision = Double.NaN;
+
     /**
      * Time of creation (not time of forecast)
      */
     public GregorianCalendar productionTime;
 
+    /**
+     * Projection of the grid. Looked up with the first use, set when the
+     * frame is created for a sub grid.
+     */
+    RadolanProjection projection;
+
+    /**
+     * Shared frame, values are not handed out for modification.
+     */
+    private boolean readOnly;
+
     private double lowerleftLat, lowerleftLon, upperleftLat, upperleftLon, lowerRightLat, lowerRightLon, upperRightLat, upperRightLon;
 
     public RadolanData(String product, int[][] values, int x, int y, int leadTime, GregorianCalendar productionTime, double lowerleftLat, double lowerleftLon, double upperleftLat, double upperleftLon, double lowerRightLat, double lowerRightLon, double upperRightLat, double upperRightLon) {
@@ -81,6 +128,17 @@ public class RadolanData {
         this.upperRightLon = upperRightLon;
     }
 
+    /**
+     * Creates a frame with compact storage of the values.
+     *
+     * @param grid row-major values (index i*x+j) beginning with lower-left
+     * corner, {@link #NAN} for missing values.
+     */
+    public RadolanData(String product, short[] grid, int x, int y, int leadTime, GregorianCalendar productionTime, double lowerleftLat, double lowerleftLon, double upperleftLat, double upperleftLon, double lowerRightLat, double lowerRightLon, double upperRightLat, double upperRightLon) {
+        this(product, (int[][]) null, x, y, leadTime, productionTime, lowerleftLat, lowerleftLon, upperleftLat, upperleftLon, lowerRightLat, lowerRightLon, upperRightLat, upperRightLon);
+        this.grid = grid;
+    }
+
     public String toHTMLString() {
         return "<html>" + product + "<br> " + productionTime.getTime().toGMTString() + "<br>(" + productionTime.getTime().toLocaleString() + " local)<br>" + x + " x " + y + "<br>" + leadTime + "min lead</html>";
     }
@@ -93,7 +151,7 @@ public class RadolanData {
                 ii = y - i - 1;
             }
             for (int j = 0; j < x; j++) {
-                int v = values[ii][j];
+                int v = getValueIJ(ii, j);
                 if (v == Integer.MIN_VALUE) {
                     str.append(" ").append(",");
                 } else {
@@ -112,6 +170,23 @@ public class RadolanData {
      * @return
      */
     public double[] getLatLonForDataIndex(double i, double j) {
+        return getLatLonForDataIndex(i, j, new double[2]);
+    }
+
+    /**
+     * Exact inverse projection for known grids, interpolation between the
+     * corners otherwise.
+     *
+     * @param i row (y)
+     * @param j column (x)
+     * @param out array of length 2 for (lat,lon)
+     * @return out
+     */
+    public double[] getLatLonForDataIndex(double i, double j, double[] out) {
+        RadolanProjection p = projection != null ? projection : RadolanProjection.forGrid(x, y);
+        if (p != null) {
+            return p.getLatLonForDataIndex(i, j, out);
+        }
         double fracX = j / (double) (this.x);
         double fracY = i / (double) (this.y);
 
@@ -121,26 +196,19 @@ public class RadolanData {
         double lowerLat = lowerleftLat + (lowerRightLat - lowerleftLat) * fracX;
         double lowerLon = lowerleftLon + (lowerRightLon - lowerleftLon) * fracX;
 
-        double lat = lowerLat + (upperLat - lowerLat) * fracY;
-        double lon = lowerLon + (upperLon - lowerLon) * fracY;
-
-        return new double[]{lat, lon};
+        out[0] = lowerLat + (upperLat - lowerLat) * fracY;
+        out[1] = lowerLon + (upperLon - lowerLon) * fracY;
+        return out;
     }
 
+    /**
+     *
+     * @param x column
+     * @param y row (0=South)
+     * @return (lat,lon)
+     */
     public double[] getLatLonForPositionIndex(double x, double y) {
-        double fracX = x / (double) (this.x);
-        double fracY = y / (double) (this.y);
-
-        double upperLat = upperleftLat + (upperRightLat - upperleftLat) * fracX;
-        double upperLon = upperleftLon + (upperRightLon - upperleftLon) * fracX;
-
-        double lowerLat = lowerleftLat + (lowerRightLat - lowerleftLat) * fracX;
-        double lowerLon = lowerleftLon + (lowerRightLon - lowerleftLon) * fracX;
-
-        double lat = lowerLat + (upperLat - lowerLat) * fracY;
-        double lon = lowerLon + (upperLon - lowerLon) * fracY;
-
-        return new double[]{lat, lon};
+        return getLatLonForDataIndex(y, x, new double[2]);
     }
 
     /**
@@ -187,22 +255,35 @@ public class RadolanData {
      * @return (x,y) indizes starting with (0,0) in UPPER left corner of the map
      */
     public double[] getPositionIndicesForLatLon_DWD(double lat, double lon) {
-        if (x == 900 && y == 900) {
-
-            //
-            double diffLat = lat - 60;//N  /  phi
-            double diffLon = lon - 10;//E  /  lambda
-            double m = (1 + Math.sin(60. / 180. * Math.PI)) / (1 + Math.sin(lat / 180. * Math.PI));
-//            System.out.println("m(" + lat + ") = " + m);
-            double x = 6370.04 * m * Math.cos(lat / 180. * Math.PI) * Math.sin(diffLon / 180. * Math.PI);
-            double y = -6370.04 * m * Math.cos(lat / 180. * Math.PI) * Math.cos(diffLon / 180. * Math.PI);
-//            System.out.println("y=-6370.04*" + m + "*" + Math.cos(lat / 180. * Math.PI) + " * " + Math.cos(diffLon / 180. * Math.PI));
+        return getProjection().project(lat, lon, new double[2]);
+    }
 
-            return new double[]{x + 523.4622, 900 - (y + 4658.645)};
+    /**
+     * Shared projection of this grid size.
+     *
+     * @return
+     * @throws UnsupportedOperationException if the grid size is unknown.
+     */
+    public RadolanProjection getProjection() {
+        RadolanProjection p = findProjection();
+        if (p == null) {
+            throw new UnsupportedOperationException("No projection known for " + x + "x" + y + " grid.");
         }
-        throw new UnsupportedOperationException("Not yet implemented");
+        return p;
+    }
 
-//        return new double[]{lat,lon};
+    /**
+     * Shared projection of this grid size.
+     *
+     * @return null if the grid size is unknown.
+     */
+    RadolanProjection findProjection() {
+        RadolanProjection p = projection;
+        if (p == null) {
+            p = RadolanProjection.forGrid(x, y);
+            projection = p;
+        }
+        return p;
     }
 
     public static void main1(String[] args) {
@@ -218,7 +299,7 @@ public class RadolanData {
         upperRightLat = 54.7405;
         upperRightLon = 15.7208;
 
-        RadolanData data = new RadolanData(null, null, 900, 900, 1, null, lowerleftLat, lowerleftLon, upperleftLat, upperleftLon, lowerRightLat, lowerRightLon, upperRightLat, upperRightLon);
+        RadolanData data = new RadolanData(null, (short[]) null, 900, 900, 1, null, lowerleftLat, lowerleftLon, upperleftLat, upperleftLon, lowerRightLat, lowerRightLon, upperRightLat, upperRightLon);
 
         double[] pos = data.getPositionIndicesForLatLon_DWD(upperRightLat, upperRightLon);
         System.out.println(pos[0] + " , " + pos[1]+"  upper right");
@@ -245,11 +326,241 @@ public class RadolanData {
     }
 
     public int getValueIJ(int i, int j) {
+        if (grid != null) {
+            return toInt(grid[i * x + j]);
+        }
         return values[i][j];
     }
 
     public int getValueXY(int x, int y) {
-        return values[this.y - y - 1][x];
+        return getValueIJ(this.y - y - 1, x);
+    }
+
+    /**
+     * Copies one row into the target array.
+     *
+     * @param i row (0=South)
+     * @param target array of at least length x or null
+     * @return target or a new array if target was null
+     */
+    public int[] getRow(int i, int[] target) {
+        return getRegion(i, 0, 1, x, target);
+    }
+
+    /**
+     * Copies a rectangular region row-major into the target array.
+     *
+     * @param i0 first row (0=South)
+     * @param j0 first column (0=West)
+     * @param rows number of rows
+     * @param columns number of columns
+     * @param target array of at least length rows*columns or null
+     * @return target or a new array if target was null
+     */
+    public int[] getRegion(int i0, int j0, int rows, int columns, int[] target) {
+        if (target == null) {
+            target = new int[rows * columns];
+        }
+        int t = 0;
+        for (int i = i0; i < i0 + rows; i++) {
+            if (grid != null) {
+                int index = i * x + j0;
+                for (int j = 0; j < columns; j++) {
+                    target[t++] = toInt(grid[index + j]);
+                }
+            } else {
+                System.arraycopy(values[i], j0, target, t, columns);
+                t += columns;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Copies a rectangular region into a new, smaller frame with its own
+     * corner coordinates and projection.
+     *
+     * @param i0 first row (0=South)
+     * @param j0 first column (0=West)
+     * @param rows number of rows
+     * @param columns number of columns
+     * @return
+     * @throws UnsupportedOperationException if the grid size is unknown.
+     */
+    public RadolanData crop(int i0, int j0, int rows, int columns) {
+        RadolanProjection sub = getProjection().subGrid(i0, j0, rows, columns);
+        short[] part = new short[rows * columns];
+        for (int i = 0; i < rows; i++) {
+            if (grid != null) {
+                System.arraycopy(grid, (i0 + i) * x + j0, part, i * columns, columns);
+            } else {
+                for (int j = 0; j < columns; j++) {
+                    part[i * columns + j] = toShort(values[i0 + i][j0 + j]);
+                }
+            }
+        }
+        RadolanData data = RadolanReader.createData(product, part, columns, rows, leadTime, productionTime, sub);
+        data.factor = factor;
+        data.offset = offset;
+        data.precision = precision;
+        return data;
+    }
+
+    /**
+     * Deep copy of this frame, values and production time are not shared.
+     * The copy can be modified, also if this frame is read-only.
+     *
+     * @return
+     */
+    public RadolanData copy() {
+        GregorianCalendar time = productionTime == null ? null : (GregorianCalendar) productionTime.clone();
+        RadolanData data;
+        if (grid != null) {
+            data = new RadolanData(product, grid.clone(), x, y, leadTime, time, lowerleftLat, lowerleftLon, upperleftLat, upperleftLon, lowerRightLat, lowerRightLon, upperRightLat, upperRightLon);
+        } else {
+            int[][] v = null;
+            if (values != null) {
+                v = new int[values.length][];
+                for (int i = 0; i < values.length; i++) {
+                    v[i] = values[i].clone();
+                }
+            }
+            data = new RadolanData(product, v, x, y, leadTime, time, lowerleftLat, lowerleftLon, upperleftLat, upperleftLon, lowerRightLat, lowerRightLon, upperRightLat, upperRightLon);
+        }
+        data.factor = factor;
+        data.offset = offset;
+        data.precision = precision;
+        data.projection = projection;
+        return data;
+    }
+
+    /**
+     * Direct access to the compact row-major storage (index i*x+j). Missing
+     * values are marked with {@link #NAN}. The array is not copied, except
+     * for read-only frames. Use {@link #getGridBuffer()} to read shared
+     * frames without a copy.
+     *
+     * @return compact grid, a copy of it if this frame is read-only or a
+     * converted copy of the int[][] values if this frame was not created in
+     * compact mode.
+     */
+    public short[] getGrid() {
+        if (readOnly && grid != null) {
+            return grid.clone();
+        }
+        return compactGrid();
+    }
+
+    /**
+     * Read-only view of the compact row-major storage (index i*x+j). Nothing
+     * is copied for compact frames.
+     *
+     * @return view of the compact grid or of a converted copy of the int[][]
+     * values.
+     */
+    public ShortBuffer getGridBuffer() {
+        return ShortBuffer.wrap(compactGrid()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Compact storage for reading within this package, not copied for
+     * compact and read-only frames. Do not modify.
+     *
+     * @return compact grid or a converted copy of the int[][] values.
+     */
+    short[] compactGrid() {
+        if (grid == null && values != null) {
+            short[] g = new short[x * y];
+            for (int i = 0; i < y; i++) {
+                for (int j = 0; j < x; j++) {
+                    g[i * x + j] = toShort(values[i][j]);
+                }
+            }
+            return g;
+        }
+        return grid;
+    }
+
+    /**
+     * Moves the values from the compact grid into {@link #values}.
+     */
+    void expand() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Frame is read-only.");
+        }
+        if (grid != null) {
+            values = toIntArray(grid, x, y);
+            grid = null;
+        }
+    }
+
+    /**
+     * Marks this frame as shared. int[][] values are moved to the compact
+     * grid, so the values can only be read through copies and views.
+     *
+     * @return this frame
+     */
+    RadolanData share() {
+        if (grid == null && values != null) {
+            grid = compactGrid();
+            values = null;
+        }
+        readOnly = true;
+        return this;
+    }
+
+    /**
+     *
+     * @return true for shared frames of the {@link RadolanCache}, which must
+     * not be modified.
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Compatibility view for code working with int[][] values.
+     *
+     * @return a new int[y][x] array, or the values array itself if this frame
+     * is not stored in compact mode.
+     */
+    public int[][] toIntArray() {
+        if (grid == null) {
+            return values;
+        }
+        return toIntArray(grid, x, y);
+    }
+
+    public static int[][] toIntArray(short[] grid, int x, int y) {
+        int[][] v = new int[y][x];
+        for (int i = 0; i < y; i++) {
+            int[] row = v[i];
+            int index = i * x;
+            for (int j = 0; j < x; j++) {
+                row[j] = toInt(grid[index + j]);
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Converts a compact value to its int representation.
+     *
+     * @param s compact value
+     * @return value or Integer.MIN_VALUE for {@link #NAN}
+     */
+    public static int toInt(short s) {
+        return s == NAN ? Integer.MIN_VALUE : s;
+    }
+
+    /**
+     * Converts an int value to the compact representation.
+     *
+     * @param v value or Integer.MIN_VALUE
+     * @return value or {@link #NAN}
+     */
+    public static short toShort(int v) {
+        return v == Integer.MIN_VALUE ? NAN : (short) v;
     }
 
 }
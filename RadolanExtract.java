@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+/**
+ * Values of selected cells of one Radolan file together with the file's
+ * header. Result of {@link RadolanReader#readCells(java.io.File, int[], int[])}.
+ *
+ * @author saemann
+ */
+public class RadolanExtract {
+
+    public final RadolanHeader header;
+
+    /**
+     * Row (0=South) and column (0=West) of the requested cells.
+     */
+    public final int[] i, j;
+
+    /**
+     * Values of the requested cells in the same order as i and j.
+     * Integer.MIN_VALUE for missing values.
+     */
+    public final int[] values;
+
+    public RadolanExtract(RadolanHeader header, int[] i, int[] j, int[] values) {
+        this.header = header;
+        this.i = i;
+        this.j = j;
+        this.values = values;
+    }
+
+    /**
+     *
+     * @param n index of the requested cell
+     * @return value or Integer.MIN_VALUE for missing values.
+     */
+    public int getValue(int n) {
+        return values[n];
+    }
+
+    /**
+     * Value in product units, scaled with the precision and offset of the
+     * product's decoder (e.g. mm/h for RQ).
+     *
+     * @param n index of the requested cell
+     * @return value or NaN for missing values.
+     */
+    public double getScaledValue(int n) {
+        if (values[n] == Integer.MIN_VALUE) {
+            return Double.NaN;
+        }
+        RadolanProductDecoder decoder = header.getDecoder();
+        return values[n] * decoder.factor(header) + decoder.offset();
+    }
+}
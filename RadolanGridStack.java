@@ -0,0 +1,451 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Stack of Radolan frames (time x rows x columns) stored outside of the java
+ * heap. Either in direct ByteBuffers or in a memory mapped file, which can be
+ * reopened without decoding the frames again.
+ * <br>
+ * Values are stored in the compact format of {@link RadolanData#getGrid()}
+ * (row-major, {@link RadolanData#NAN} for missing values). All frames share
+ * one scaling (factor and offset), which is set by the first stored frame.
+ * Frames with a different precision are rejected.
+ * <br>
+ * File layout: 64 byte header (grid size, capacity, scaling), one 16 byte
+ * metadata entry per slot (production time, lead time, product), followed
+ * by the frames.
+ *
+ * @author saemann
+ */
+public class RadolanGridStack implements Closeable {
+
+    private static final int MAGIC = 0x52445354;//"RDST"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = 16;
+    /**
+     * Position of factor and offset (float) in the header.
+     */
+    private static final int FACTOR_POSITION = 20, OFFSET_POSITION = 24;
+    /**
+     * Maximum size of one mapped segment. Mapped buffers are limited to 2GB.
+     */
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final int x, y, capacity;
+    private final int frameBytes;
+    private final int framesPerSegment;
+    private final ByteBuffer header;
+    private final ByteBuffer metadata;
+    private final ByteBuffer[] segments;
+    private final FileChannel channel;
+
+    private RadolanGridStack(int x, int y, int capacity, ByteBuffer header, ByteBuffer metadata, ByteBuffer[] segments, FileChannel channel) {
+        this.x = x;
+        this.y = y;
+        this.capacity = capacity;
+        this.frameBytes = x * y * 2;
+        this.framesPerSegment = framesPerSegment(frameBytes);
+        this.header = header;
+        this.metadata = metadata;
+        this.segments = segments;
+        this.channel = channel;
+    }
+
+    private static int framesPerSegment(int frameBytes) {
+        return (int) Math.max(1, SEGMENT_BYTES / frameBytes);
+    }
+
+    private static ByteBuffer createHeader(int x, int y, int capacity) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(x).putInt(y).putInt(capacity);
+        header.putFloat(Float.NaN).putFloat(Float.NaN);
+        header.clear();
+        return header;
+    }
+
+    private static long dataStart(int capacity) {
+        long end = HEADER_BYTES + (long) capacity * SLOT_BYTES;
+        //Align frames to pages
+        return (end + 4095) & ~4095L;
+    }
+
+    /**
+     * Creates a stack in direct (off-heap) memory.
+     *
+     * @param x number of columns
+     * @param y number of rows
+     * @param capacity number of frames
+     * @return
+     */
+    public static RadolanGridStack allocateDirect(int x, int y, int capacity) {
+        int frameBytes = x * y * 2;
+        int fps = framesPerSegment(frameBytes);
+        ByteBuffer[] segments = new ByteBuffer[(capacity + fps - 1) / fps];
+        for (int s = 0; s < segments.length; s++) {
+            int frames = Math.min(fps, capacity - s * fps);
+            segments[s] = ByteBuffer.allocateDirect(frames * frameBytes).order(ORDER);
+        }
+        ByteBuffer metadata = ByteBuffer.allocateDirect(capacity * SLOT_BYTES).order(ORDER);
+        return new RadolanGridStack(x, y, capacity, createHeader(x, y, capacity), metadata, segments, null);
+    }
+
+    /**
+     * Creates a new memory mapped stack file. An existing file is overwritten.
+     *
+     * @param file
+     * @param x number of columns
+     * @param y number of rows
+     * @param capacity number of frames
+     * @return
+     * @throws IOException
+     */
+    public static RadolanGridStack create(File file, int x, int y, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = createHeader(x, y, capacity);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            long size = dataStart(capacity) + (long) capacity * x * y * 2;
+            //Set file size
+            channel.write(ByteBuffer.allocate(1), size - 1);
+            return map(channel, x, y, capacity);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing stack file. The frames are not read until they are
+     * accessed.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static RadolanGridStack open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+            int bytes_read = 0;
+            while (header.hasRemaining() && bytes_read >= 0) {
+                bytes_read = channel.read(header, header.position());
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException("Not a Radolan stack file: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported stack file version " + version + ": " + file);
+            }
+            int x = header.getInt();
+            int y = header.getInt();
+            int capacity = header.getInt();
+            if (channel.size() < dataStart(capacity) + (long) capacity * x * y * 2) {
+                throw new IOException("Stack file is truncated: " + file);
+            }
+            return map(channel, x, y, capacity);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static RadolanGridStack map(FileChannel channel, int x, int y, int capacity) throws IOException {
+        int frameBytes = x * y * 2;
+        int fps = framesPerSegment(frameBytes);
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES).order(ORDER);
+        ByteBuffer metadata = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, (long) capacity * SLOT_BYTES).order(ORDER);
+        ByteBuffer[] segments = new ByteBuffer[(capacity + fps - 1) / fps];
+        long start = dataStart(capacity);
+        for (int s = 0; s < segments.length; s++) {
+            int frames = Math.min(fps, capacity - s * fps);
+            segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, start + (long) s * fps * frameBytes, (long) frames * frameBytes).order(ORDER);
+        }
+        return new RadolanGridStack(x, y, capacity, header, metadata, segments, channel);
+    }
+
+    /**
+     * number of horizontal elements
+     *
+     * @return
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Number of vertical elements
+     *
+     * @return
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Number of frame slots.
+     *
+     * @return
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Factor of the stored values, see {@link RadolanData#factor}.
+     *
+     * @return NaN until the first frame is stored.
+     */
+    public synchronized float getFactor() {
+        float factor = header.getFloat(FACTOR_POSITION);
+        //Files of older versions have no scaling
+        return factor == 0 ? Float.NaN : factor;
+    }
+
+    /**
+     * Offset of the stored values, see {@link RadolanData#offset}.
+     *
+     * @return NaN until the first frame is stored.
+     */
+    public synchronized float getOffset() {
+        return Float.isNaN(getFactor()) ? Float.NaN : header.getFloat(OFFSET_POSITION);
+    }
+
+    /**
+     * Sets the scaling of the stored values. The first frame of a stack sets
+     * it, all further frames must have the same scaling.
+     *
+     * @param factor
+     * @param offset
+     * @throws IllegalArgumentException if the stack already holds frames of a
+     * different precision.
+     */
+    public synchronized void setScaling(float factor, float offset) {
+        if (Float.isNaN(getFactor())) {
+            header.putFloat(FACTOR_POSITION, factor);
+            header.putFloat(OFFSET_POSITION, offset);
+        } else if (getFactor() != factor || getOffset() != offset) {
+            throw new IllegalArgumentException("Scaling " + factor + "/" + offset + " differs from the stack (" + getFactor() + "/" + getOffset() + "). Mixed precisions can not be stored in one stack.");
+        }
+    }
+
+    /**
+     *
+     * @param k slot
+     * @return true if a frame has been stored in this slot.
+     */
+    public boolean isSet(int k) {
+        return metadata.get(k * SLOT_BYTES + 14) != 0;
+    }
+
+    /**
+     * Marks slot k as not set. The values are kept until the slot is
+     * overwritten.
+     *
+     * @param k slot
+     */
+    public void clear(int k) {
+        metadata.put(k * SLOT_BYTES + 14, (byte) 0);
+    }
+
+    /**
+     *
+     * @param k slot
+     * @return production time in UTC milliseconds.
+     */
+    public long getProductionTime(int k) {
+        return metadata.getLong(k * SLOT_BYTES);
+    }
+
+    /**
+     *
+     * @param k slot
+     * @return lead time in minutes
+     */
+    public int getLeadTime(int k) {
+        return metadata.getInt(k * SLOT_BYTES + 8);
+    }
+
+    /**
+     *
+     * @param k slot
+     * @return product name (e.g. RQ) or null if the slot is empty.
+     */
+    public String getProduct(int k) {
+        if (!isSet(k)) {
+            return null;
+        }
+        return new String(new char[]{(char) metadata.get(k * SLOT_BYTES + 12), (char) metadata.get(k * SLOT_BYTES + 13)});
+    }
+
+    /**
+     * Stores the description of the frame in slot k and marks it as set.
+     *
+     * @param k slot
+     * @param product
+     * @param productionTime UTC milliseconds
+     * @param leadTime minutes
+     */
+    public void setMetadata(int k, String product, long productionTime, int leadTime) {
+        int p = k * SLOT_BYTES;
+        metadata.putLong(p, productionTime);
+        metadata.putInt(p + 8, leadTime);
+        metadata.put(p + 12, (byte) (product != null && product.length() > 0 ? product.charAt(0) : ' '));
+        metadata.put(p + 13, (byte) (product != null && product.length() > 1 ? product.charAt(1) : ' '));
+        metadata.put(p + 14, (byte) 1);
+    }
+
+    /**
+     * View of the frame in slot k. Writing to the view changes the stack.
+     *
+     * @param k slot
+     * @return row-major values (index i*x+j)
+     */
+    public ShortBuffer frame(int k) {
+        if (k < 0 || k >= capacity) {
+            throw new IndexOutOfBoundsException("Slot " + k + " not in stack of " + capacity + " frames.");
+        }
+        ByteBuffer segment = segments[k / framesPerSegment].duplicate();
+        int offset = (k % framesPerSegment) * frameBytes;
+        segment.limit(offset + frameBytes).position(offset);
+        return segment.slice().order(ORDER).asShortBuffer();
+    }
+
+    /**
+     * Copies frame k into a new RadolanData object on the heap, scaled with
+     * the factor and offset of the stack.
+     *
+     * @param k slot
+     * @return
+     */
+    public RadolanData getData(int k) {
+        short[] grid = new short[x * y];
+        frame(k).get(grid);
+        GregorianCalendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        cal.setTimeInMillis(getProductionTime(k));
+        RadolanData data = RadolanReader.createData(getProduct(k), grid, x, y, getLeadTime(k), cal);
+        float factor = getFactor();
+        if (!Float.isNaN(factor)) {
+            data.factor = factor;
+            data.offset = getOffset();
+        }
+        return data;
+    }
+
+    /**
+     * Stores a decoded frame in slot k.
+     *
+     * @param k slot
+     * @param data frame with the same grid size and scaling as this stack
+     * @throws IllegalArgumentException if grid size or scaling differ.
+     */
+    public void setData(int k, RadolanData data) {
+        if (data.x != x || data.y != y) {
+            throw new IllegalArgumentException("Grid " + data.x + "x" + data.y + " does not fit into stack of " + x + "x" + y);
+        }
+        setScaling(data.factor, data.offset);
+        frame(k).put(data.compactGrid());
+        setMetadata(k, data.product, data.productionTime.getTimeInMillis(), data.leadTime);
+    }
+
+    /**
+     *
+     * @param k slot
+     * @param i row (0=South)
+     * @param j column (0=West)
+     * @return value or Integer.MIN_VALUE for missing values.
+     */
+    public int getValue(int k, int i, int j) {
+        return RadolanData.toInt(segments[k / framesPerSegment].getShort((k % framesPerSegment) * frameBytes + (i * x + j) * 2));
+    }
+
+    /**
+     * Values of one cell over time.
+     *
+     * @param i row (0=South)
+     * @param j column (0=West)
+     * @param k0 first slot
+     * @param count number of slots
+     * @param target array of at least length count or null
+     * @return target or a new array. Missing values are Integer.MIN_VALUE.
+     */
+    public int[] getCellSeries(int i, int j, int k0, int count, int[] target) {
+        if (target == null) {
+            target = new int[count];
+        }
+        int cellOffset = (i * x + j) * 2;
+        for (int t = 0; t < count; t++) {
+            int k = k0 + t;
+            target[t] = RadolanData.toInt(segments[k / framesPerSegment].getShort((k % framesPerSegment) * frameBytes + cellOffset));
+        }
+        return target;
+    }
+
+    /**
+     * Writes changes of a mapped stack to the file.
+     */
+    public void force() {
+        if (channel == null) {
+            return;
+        }
+        ((MappedByteBuffer) header).force();
+        ((MappedByteBuffer) metadata).force();
+        for (ByteBuffer segment : segments) {
+            ((MappedByteBuffer) segment).force();
+        }
+    }
+
+    /**
+     * Closes the file of a mapped stack. The mapping itself is released by
+     * the garbage collector.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            force();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Header information of one Radolan file. Parsed directly from the raw bytes
+ * up to the ETX marker without decoding them as text.
+ *
+ * @author saemann
+ */
+public class RadolanHeader {
+
+    /**
+     * End of text marker. The header ends here.
+     */
+    public static final byte ETX = 0x03;
+
+    /**
+     * Distance of the first value byte to the ETX marker.
+     */
+    public static final int BODY_OFFSET = 2;
+
+    public String product;
+
+    /**
+     * Time of creation (not time of forecast), UTC.
+     */
+    public GregorianCalendar productionTime;
+
+    /**
+     * Product length in bytes (BY).
+     */
+    public int contentLength;
+
+    /**
+     * number of horizontal elements
+     */
+    public int x;
+    /**
+     * Number of vertical elements
+     */
+    public int y;
+    /**
+     * Lead time in minutes. -1 if the file contains no VV entry.
+     */
+    public int leadTime = -1;
+
+    /**
+     * Text of the MS entry (e.g. list of radar sites). Null if the file
+     * contains no MS entry.
+     */
+    public String text;
+
+    /**
+     * Precision of the stored values (PR entry), e.g. 0.1 for "E-01". NaN if
+     * the file contains no PR entry.
+     */
+    public double precision = Double.NaN;
+
+    /**
+     * Number of bytes per cell of the product's bit layout.
+     */
+    public int bytesPerValue = 2;
+
+    /**
+     * Absolute position of the ETX marker in the parsed buffer.
+     */
+    public int positionETX;
+
+    /**
+     * Absolute position of the first value byte in the parsed buffer.
+     */
+    public int positionBody;
+
+    /**
+     * Parses the header starting at the buffer's position. The buffer's
+     * position is not changed.
+     *
+     * @param bb raw binary Radolan content
+     * @return
+     * @throws IOException if the header is incomplete or malformed.
+     */
+    public static RadolanHeader parse(ByteBuffer bb) throws IOException {
+        int start = bb.position();
+        int limit = bb.limit();
+        int etx = -1;
+        for (int p = start; p < limit; p++) {
+            if (bb.get(p) == ETX) {
+                etx = p;
+                break;
+            }
+        }
+        if (etx < 0) {
+            throw new IOException("No end of header (ETX) found.");
+        }
+        if (etx - start < 19 || bb.get(start + 17) != 'B' || bb.get(start + 18) != 'Y') {
+            throw new IOException("BY not at location 17");
+        }
+        RadolanHeader h = new RadolanHeader();
+        h.positionETX = etx;
+        h.product = productName(bb.get(start), bb.get(start + 1));
+        RadolanProductDecoder decoder = RadolanProducts.forProduct(h.product);
+        h.positionBody = etx + decoder.bodyOffset();
+        h.bytesPerValue = decoder.bytesPerValue();
+
+        int day = parseInt(bb, start + 2, start + 4);
+        int hour = parseInt(bb, start + 4, start + 6);
+        int minute = parseInt(bb, start + 6, start + 8);
+        //start+8 ... start+13 : radar ID
+        int month = parseInt(bb, start + 13, start + 15);
+        int year = parseInt(bb, start + 15, start + 17);
+
+        //Create UTC time object (DWD data is in UTC timezone format)
+        GregorianCalendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        cal.set(GregorianCalendar.YEAR, year + 2000);
+        cal.set(GregorianCalendar.MONTH, month - 1);
+        cal.set(GregorianCalendar.DAY_OF_MONTH, day);
+        cal.set(GregorianCalendar.HOUR_OF_DAY, hour);
+        cal.set(GregorianCalendar.MINUTE, minute);
+        cal.set(GregorianCalendar.SECOND, 0);
+        cal.set(GregorianCalendar.MILLISECOND, 0);
+        h.productionTime = cal;
+
+        int markeBY = start + 17;
+        int markeVS = indexOf(bb, 'V', 'S', markeBY, etx);
+        if (markeVS < 0) {
+            throw new IOException("No VS entry in header.");
+        }
+        h.contentLength = parseInt(bb, markeBY + 2, markeVS);
+
+        //Precision (PR E-01)
+        int markePR = indexOf(bb, 'P', 'R', markeVS, etx);
+
+        int markeSW = indexOf(bb, 'S', 'W', markeBY, etx);
+        int markeINT = indexOf(bb, 'I', 'N', Math.max(markeSW, markeBY), etx);
+        int markeGP = indexOf(bb, 'G', 'P', Math.max(markeINT, markeBY), etx);
+        if (markeGP < 0) {
+            throw new IOException("No GP entry in header.");
+        }
+        if (markePR >= 0 && markePR < markeGP && bb.get(markePR + 3) == 'E') {
+            int end = markeINT > markePR ? markeINT : markeGP;
+            try {
+                h.precision = Math.pow(10, parseInt(bb, markePR + 4, Math.min(end, markePR + 7)));
+            } catch (IOException e) {
+                //Precision is optional, the product's default is used.
+            }
+        }
+        int markeVV = indexOf(bb, 'V', 'V', markeGP, etx);
+        int markeMF = indexOf(bb, 'M', 'F', Math.max(markeVV, markeGP), etx);
+        int markeMS = indexOf(bb, 'M', 'S', Math.max(markeMF, markeGP), etx);
+
+        //Grid size, rows x columns (e.g. GP1100x 900 for 900 columns)
+        int endGrid;
+        if (markeVV >= 0) {
+            endGrid = markeVV;
+        } else if (markeMF >= 0) {
+            endGrid = markeMF;
+        } else if (markeMS >= 0) {
+            endGrid = markeMS;
+        } else {
+            endGrid = etx;
+        }
+        int posX = -1;
+        for (int p = markeGP + 2; p < endGrid; p++) {
+            if (bb.get(p) == 'x') {
+                posX = p;
+                break;
+            }
+        }
+        if (posX < 0) {
+            throw new IOException("Can not read grid size.");
+        }
+        h.y = parseInt(bb, markeGP + 2, posX);
+        h.x = parseInt(bb, posX + 1, endGrid);
+
+        //Forecast time (lead time) [Minutes]
+        if (markeVV >= 0) {
+            h.leadTime = parseInt(bb, markeVV + 2, markeMF >= 0 ? markeMF : endOfNumber(bb, markeVV + 2, etx));
+        }
+
+        //Text (MS + 3 digits length + text)
+        if (markeMS >= 0 && markeMS + 5 <= etx) {
+            int length;
+            try {
+                length = parseInt(bb, markeMS + 2, markeMS + 5);
+            } catch (IOException e) {
+                //Text is optional, do not fail on a malformed length
+                length = etx - markeMS - 5;
+            }
+            int end = Math.min(etx, markeMS + 5 + Math.max(0, length));
+            byte[] text = new byte[end - markeMS - 5];
+            for (int p = 0; p < text.length; p++) {
+                text[p] = bb.get(markeMS + 5 + p);
+            }
+            h.text = new String(text, StandardCharsets.ISO_8859_1);
+        }
+        return h;
+    }
+
+    /**
+     *
+     * @return decoder of the product's bit layout.
+     */
+    public RadolanProductDecoder getDecoder() {
+        return RadolanProducts.forProduct(product);
+    }
+
+    /**
+     * Uses constant Strings for the known products to avoid allocating a new
+     * String for every file.
+     */
+    private static String productName(byte b0, byte b1) {
+        switch ((b0 << 8) | b1) {
+            case ('R' << 8) | 'Q':
+                return "RQ";
+            case ('R' << 8) | 'W':
+                return "RW";
+            case ('R' << 8) | 'Y':
+                return "RY";
+            case ('R' << 8) | 'X':
+                return "RX";
+            case ('R' << 8) | 'V':
+                return "RV";
+            case ('W' << 8) | 'X':
+                return "WX";
+            case ('Y' << 8) | 'W':
+                return "YW";
+            case ('S' << 8) | 'F':
+                return "SF";
+            default:
+                return new String(new char[]{(char) (b0 & 0xFF), (char) (b1 & 0xFF)});
+        }
+    }
+
+    /**
+     * Position of the first occurence of the two characters in [from,to).
+     *
+     * @return absolute position or -1
+     */
+    static int indexOf(ByteBuffer bb, char c0, char c1, int from, int to) {
+        for (int p = Math.max(0, from); p < to - 1; p++) {
+            if (bb.get(p) == c0 && bb.get(p + 1) == c1) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    private static int endOfNumber(ByteBuffer bb, int from, int to) {
+        int p = from;
+        while (p < to && (bb.get(p) == ' ' || bb.get(p) == '-' || bb.get(p) == '+')) {
+            p++;
+        }
+        while (p < to && bb.get(p) >= '0' && bb.get(p) <= '9') {
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * Parses a decimal integer in [from,to). Spaces are ignored.
+     *
+     * @throws IOException if any other character than digits, spaces or a
+     * leading sign is found.
+     */
+    static int parseInt(ByteBuffer bb, int from, int to) throws IOException {
+        int value = 0;
+        boolean negative = false;
+        boolean digits = false;
+        for (int p = from; p < to; p++) {
+            byte b = bb.get(p);
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                digits = true;
+            } else if (b == '-' && !digits) {
+                negative = true;
+            } else if (b != ' ' && !(b == '+' && !digits)) {
+                throw new IOException("Unexpected character '" + (char) b + "' in number at position " + p);
+            }
+        }
+        if (!digits) {
+            throw new IOException("No number found at position " + from);
+        }
+        return negative ? -value : value;
+    }
+}
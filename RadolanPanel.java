@@ -94,7 +94,7 @@ public class RadolanPanel extends JPanel {
                 List<File> data;
                 try {
                     data = (List<File>) t.getTransferData(DataFlavor.javaFileListFlavor);
-                    RadolanData d = RadolanReader.readFile(data.get(0));
+                    RadolanData d = RadolanCache.readFile(data.get(0));
                     setData(d);
 //                    BufferedImage bi = d.createImage();
 //                    Graphics g = bi.getGraphics();
@@ -217,15 +217,17 @@ public class RadolanPanel extends JPanel {
     }
 
     public BufferedImage createImage(RadolanData data) {
-        if (data.values == null) {
+        if (data.values == null && data.compactGrid() == null) {
             throw new NullPointerException("No data values read.");
         }
-        BufferedImage bi = new BufferedImage(data.values.length, data.values[0].length, BufferedImage.TYPE_INT_RGB);
+        BufferedImage bi = new BufferedImage(data.x, data.y, BufferedImage.TYPE_INT_RGB);
         WritableRaster raster = bi.getRaster();
-        for (int iy = 0; iy < data.values.length; iy++) {
+        int[] row = new int[data.x];
+        for (int iy = 0; iy < data.y; iy++) {
             int yt = data.y - 1 - iy;//inverse Y for top down orientation
-            for (int xt = 0; xt < data.values[0].length; xt++) {
-                int value = data.values[iy][xt];
+            data.getRow(iy, row);
+            for (int xt = 0; xt < data.x; xt++) {
+                int value = row[xt];
                 if (value == Integer.MIN_VALUE) {
                     raster.setPixel(xt, yt, colorNaN);
                 } else if (value == 0) {
@@ -288,7 +290,7 @@ public class RadolanPanel extends JPanel {
             RadolanPanel panel = new RadolanPanel();
             frame.add(panel);
             if (file.exists()) {
-                panel.setData(RadolanReader.readFile(file));
+                panel.setData(RadolanCache.readFile(file));
                 double[] hannover = panel.data.getPositionIndicesForLatLon_DWD(52.39, 9.712296);
                 System.out.println("Hannover: X:" + hannover[0] + " ,  y:" + hannover[1]);
 
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bit layout of the values of one product. Decoders are registered per
+ * product code in {@link RadolanProducts}.
+ *
+ * @author saemann
+ */
+public interface RadolanProductDecoder {
+
+    /**
+     *
+     * @return distance of the first value byte from the ETX marker.
+     */
+    public int bodyOffset();
+
+    /**
+     *
+     * @return number of bytes per cell.
+     */
+    public int bytesPerValue();
+
+    /**
+     * Factor to convert stored values into product units.
+     *
+     * @param header of the file, null for the product's default.
+     * @return
+     */
+    public double factor(RadolanHeader header);
+
+    /**
+     * Offset added to the scaled values, e.g. -32.5 dBZ for RVP6 units.
+     *
+     * @return
+     */
+    public double offset();
+
+    /**
+     * Decodes n consecutive values into the compact format of
+     * {@link RadolanData}. Missing trailing bytes are read as zero.
+     *
+     * @param bb raw binary Radolan content
+     * @param position absolute position of the first value byte
+     * @param n number of values
+     * @param target compact grid
+     * @param offset index of the first cell in target
+     */
+    public void decode(ByteBuffer bb, int position, int n, short[] target, int offset);
+}
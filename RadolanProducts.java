@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the product decoders by product code (RQ, RW, RX, ...).
+ * Unknown products are decoded as flagged 2-byte words.
+ *
+ * @author saemann
+ */
+public class RadolanProducts {
+
+    /**
+     * Flagged 2-byte big endian words: value in bit 1-12, 0x2000 error,
+     * 0x4000 negative, 0x8000 clutter. Precision from the PR entry, 0.1 if
+     * the header has none.
+     */
+    public static final RadolanProductDecoder WORDS = new RadolanProductDecoder() {
+        @Override
+        public int bodyOffset() {
+            return RadolanHeader.BODY_OFFSET;
+        }
+
+        @Override
+        public int bytesPerValue() {
+            return 2;
+        }
+
+        @Override
+        public double factor(RadolanHeader header) {
+            return header != null && !Double.isNaN(header.precision) ? header.precision : 0.1;
+        }
+
+        @Override
+        public double offset() {
+            return 0;
+        }
+
+        @Override
+        public void decode(ByteBuffer bb, int position, int n, short[] target, int offset) {
+            RadolanReader.decodeBody(bb, position, n, 1, target, offset);
+        }
+    };
+
+    /**
+     * Missing value (250) and clutter (249) marks of 1-byte RVP6 products.
+     */
+    static final int RVP6_CLUTTER = 249, RVP6_MISSING = 250;
+
+    /**
+     * 1-byte RVP6 units directly after ETX: dBZ = value * 0.5 - 32.5. Values
+     * of 249 (clutter) and more (250 = not measured) are missing values.
+     */
+    public static final RadolanProductDecoder RVP6 = new RadolanProductDecoder() {
+        @Override
+        public int bodyOffset() {
+            return 1;
+        }
+
+        @Override
+        public int bytesPerValue() {
+            return 1;
+        }
+
+        @Override
+        public double factor(RadolanHeader header) {
+            return 0.5;
+        }
+
+        @Override
+        public double offset() {
+            return -32.5;
+        }
+
+        @Override
+        public void decode(ByteBuffer bb, int position, int n, short[] target, int offset) {
+            int limit = bb.limit();
+            int complete = (int) Math.max(0, Math.min(n, limit - (long) position));
+            if (bb.hasArray()) {
+                decodeBytes(bb.array(), bb.arrayOffset() + position, target, offset, complete);
+            } else {
+                byte[] chunk = new byte[Math.min(complete, 16384)];
+                ByteBuffer src = bb.duplicate();
+                src.position(position);
+                for (int k = 0; k < complete; k += chunk.length) {
+                    int m = Math.min(chunk.length, complete - k);
+                    src.get(chunk, 0, m);
+                    decodeBytes(chunk, 0, target, offset + k, m);
+                }
+            }
+            for (int k = complete; k < n; k++) {
+                //Missing trailing bytes are read as zero.
+                target[offset + k] = 0;
+            }
+        }
+    };
+
+    /**
+     * Decodes n RVP6 bytes without branches.
+     */
+    static void decodeBytes(byte[] src, int srcPos, short[] target, int offset, int n) {
+        for (int k = 0; k < n; k++) {
+            int v = src[srcPos + k] & 0xFF;
+            //-1 for marks (>=249), 0 for values
+            int mark = (RVP6_CLUTTER - 1 - v) >> 31;
+            target[offset + k] = (short) ((v & ~mark) | (RadolanData.NAN & mark));
+        }
+    }
+
+    private static final ConcurrentHashMap<String, RadolanProductDecoder> DECODERS = new ConcurrentHashMap<>();
+
+    static {
+        for (String product : new String[]{"RQ", "RW", "RY", "YW", "SF", "RV"}) {
+            register(product, WORDS);
+        }
+        register("RX", RVP6);
+        register("WX", RVP6);
+    }
+
+    /**
+     * Sets the decoder of a product.
+     *
+     * @param product two letter product code
+     * @param decoder
+     */
+    public static void register(String product, RadolanProductDecoder decoder) {
+        DECODERS.put(product, decoder);
+    }
+
+    /**
+     *
+     * @param product two letter product code, may be null.
+     * @return registered decoder or {@link #WORDS} for unknown products.
+     */
+    public static RadolanProductDecoder forProduct(String product) {
+        if (product == null) {
+            return WORDS;
+        }
+        RadolanProductDecoder decoder = DECODERS.get(product);
+        return decoder != null ? decoder : WORDS;
+    }
+}
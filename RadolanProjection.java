@@ -0,0 +1,447 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Polar stereographic projection of one Radolan grid definition (true scale
+ * at 60 deg N, central meridian 10 deg E, spherical earth). Instances are shared by
+ * all frames with the same grid size.
+ * <br>
+ * Position indices start with (0,0) in the UPPER left corner of the map, as
+ * in {@link RadolanData#getPositionIndicesForLatLon_DWD(double, double)}.
+ *
+ * @author saemann
+ */
+public class RadolanProjection {
+
+    /**
+     * Earth radius [km]
+     */
+    public static final double EARTH_RADIUS = 6370.04;
+
+    private static final double TO_RAD = Math.PI / 180.;
+    private static final double LAMBDA0 = 10. * TO_RAD;
+    private static final double SCALE = EARTH_RADIUS * (1 + Math.sin(60. * TO_RAD));
+
+    private static final ConcurrentHashMap<Long, RadolanProjection> GRIDS = new ConcurrentHashMap<>();
+
+    private static final int CELL_GRIDS_MAGIC = 0x52444347;//"RDCG"
+    private static final int CELL_GRIDS_VERSION = 1;
+    private static final int CELL_GRIDS_HEADER_BYTES = 64;
+
+    static {
+        //National composite
+        register(new RadolanProjection(900, 900, -523.4622, -4658.645, 1));
+        //National composite, extended to the north (e.g. WX, RV)
+        register(new RadolanProjection(900, 1100, -443.4622, -4758.645, 1));
+        //National composite DE1200, 1100 columns x 1200 rows (e.g. RV, HG)
+        register(new RadolanProjection(1100, 1200, -543.4622, -4808.645, 1));
+        //Middle european composite
+        register(new RadolanProjection(1400, 1500, -673.4622, -5008.645, 1));
+        //2km composite (e.g. PG), same center as the national composite
+        register(new RadolanProjection(460, 460, -533.4622, -4668.645, 2));
+    }
+
+    /**
+     * number of horizontal elements
+     */
+    public final int x;
+    /**
+     * Number of vertical elements
+     */
+    public final int y;
+    /**
+     * Lower left corner of the grid in projected coordinates [km].
+     */
+    public final double x0, y0;
+    /**
+     * Edge length of one cell [km].
+     */
+    public final double resolution;
+
+    /**
+     * Registered grid this grid is cut from, null for full grids.
+     */
+    public final RadolanProjection parent;
+    /**
+     * Position of the lower left cell in the parent grid (row, column).
+     */
+    public final int originI, originJ;
+
+    /**
+     * Cell center coordinates and areas, created with the first request.
+     */
+    private volatile float[] cellLatitudes, cellLongitudes, cellAreas;
+
+    public RadolanProjection(int x, int y, double x0, double y0, double resolution) {
+        this(x, y, x0, y0, resolution, null, 0, 0);
+    }
+
+    private RadolanProjection(int x, int y, double x0, double y0, double resolution, RadolanProjection parent, int originI, int originJ) {
+        this.x = x;
+        this.y = y;
+        this.x0 = x0;
+        this.y0 = y0;
+        this.resolution = resolution;
+        this.parent = parent;
+        this.originI = originI;
+        this.originJ = originJ;
+    }
+
+    /**
+     * Projection of a rectangular part of this grid. Sub grids are not
+     * registered, their origin is kept in the parent grid.
+     *
+     * @param i0 first row (0=South)
+     * @param j0 first column (0=West)
+     * @param rows
+     * @param columns
+     * @return
+     */
+    public RadolanProjection subGrid(int i0, int j0, int rows, int columns) {
+        if (i0 < 0 || j0 < 0 || rows <= 0 || columns <= 0 || i0 + rows > y || j0 + columns > x) {
+            throw new IllegalArgumentException("Region " + rows + "x" + columns + " at (" + i0 + "," + j0 + ") is not inside the " + x + "x" + y + " grid.");
+        }
+        RadolanProjection root = parent != null ? parent : this;
+        return new RadolanProjection(columns, rows, x0 + j0 * resolution, y0 + i0 * resolution, resolution, root, originI + i0, originJ + j0);
+    }
+
+    /**
+     * Text to store the origin of a sub grid in the MS entry of a file, e.g.
+     * "&lt;crop 900x900 i=550 j=430&gt;".
+     *
+     * @return null for full grids.
+     */
+    public String getCropText() {
+        if (parent == null) {
+            return null;
+        }
+        return "<crop " + parent.x + "x" + parent.y + " i=" + originI + " j=" + originJ + ">";
+    }
+
+    /**
+     * Projection of a file: the sub grid given by a crop text (see
+     * {@link #getCropText()}) or the registered grid of this size.
+     *
+     * @param x number of columns
+     * @param y number of rows
+     * @param text MS text of the file, may be null.
+     * @return null if the grid is unknown.
+     */
+    public static RadolanProjection forGrid(int x, int y, String text) {
+        if (text != null && text.startsWith("<crop ")) {
+            try {
+                String[] parts = text.substring(6, text.indexOf('>')).split(" ");
+                String[] size = parts[0].split("x");
+                RadolanProjection full = forGrid(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+                if (full != null) {
+                    return full.subGrid(Integer.parseInt(parts[1].substring(2)), Integer.parseInt(parts[2].substring(2)), y, x);
+                }
+            } catch (RuntimeException e) {
+                //Not a valid crop text
+            }
+        }
+        return forGrid(x, y);
+    }
+
+    /**
+     * Smallest region of this grid that contains a lat/lon box. The box
+     * edges are sampled because they are curved in the projection.
+     *
+     * @param latMin [deg N]
+     * @param lonMin [deg E]
+     * @param latMax [deg N]
+     * @param lonMax [deg E]
+     * @return {i0, j0, rows, columns} clipped to the grid, rows or columns
+     * are 0 if the box is outside of the grid.
+     */
+    public int[] getDataIndexBounds(double latMin, double lonMin, double latMax, double lonMax) {
+        int samples = 16;
+        double[] lat = new double[4 * samples], lon = new double[4 * samples];
+        for (int k = 0; k < samples; k++) {
+            double f = k / (double) (samples - 1);
+            lat[k] = latMin;
+            lon[k] = lonMin + f * (lonMax - lonMin);
+            lat[samples + k] = latMax;
+            lon[samples + k] = lon[k];
+            lat[2 * samples + k] = latMin + f * (latMax - latMin);
+            lon[2 * samples + k] = lonMin;
+            lat[3 * samples + k] = lat[2 * samples + k];
+            lon[3 * samples + k] = lonMax;
+        }
+        double[] pi = new double[lat.length], pj = new double[lat.length];
+        projectToDataIndices(lat, lon, pi, pj);
+        double minI = Double.POSITIVE_INFINITY, maxI = Double.NEGATIVE_INFINITY;
+        double minJ = Double.POSITIVE_INFINITY, maxJ = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < pi.length; k++) {
+            minI = Math.min(minI, pi[k]);
+            maxI = Math.max(maxI, pi[k]);
+            minJ = Math.min(minJ, pj[k]);
+            maxJ = Math.max(maxJ, pj[k]);
+        }
+        int i0 = (int) Math.max(0, Math.floor(minI));
+        int i1 = (int) Math.min(y, Math.ceil(maxI));
+        int j0 = (int) Math.max(0, Math.floor(minJ));
+        int j1 = (int) Math.min(x, Math.ceil(maxJ));
+        return new int[]{i0, j0, Math.max(0, i1 - i0), Math.max(0, j1 - j0)};
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | y;
+    }
+
+    /**
+     * Makes a grid definition available for {@link #forGrid(int, int)}.
+     *
+     * @param projection
+     */
+    public static void register(RadolanProjection projection) {
+        GRIDS.put(key(projection.x, projection.y), projection);
+    }
+
+    /**
+     * Shared projection of a grid size.
+     *
+     * @param x number of columns
+     * @param y number of rows
+     * @return projection or null if the grid is unknown.
+     */
+    public static RadolanProjection forGrid(int x, int y) {
+        return GRIDS.get(key(x, y));
+    }
+
+    /**
+     * Projects many coordinates at once. No objects are created.
+     *
+     * @param lat latitudes [deg N]
+     * @param lon longitudes [deg E]
+     * @param outX column position (0=West)
+     * @param outY row position (0=North)
+     */
+    public void project(double[] lat, double[] lon, double[] outX, double[] outY) {
+        for (int k = 0; k < lat.length; k++) {
+            double phi = lat[k] * TO_RAD;
+            double dLambda = lon[k] * TO_RAD - LAMBDA0;
+            double r = SCALE * Math.cos(phi) / (1 + Math.sin(phi));
+            double px = r * Math.sin(dLambda);
+            double py = -r * Math.cos(dLambda);
+            outX[k] = (px - x0) / resolution;
+            outY[k] = y - (py - y0) / resolution;
+        }
+    }
+
+    /**
+     * Projects many coordinates to data indices (row from the south) at once.
+     *
+     * @param lat latitudes [deg N]
+     * @param lon longitudes [deg E]
+     * @param outI row (0=South)
+     * @param outJ column (0=West)
+     */
+    public void projectToDataIndices(double[] lat, double[] lon, double[] outI, double[] outJ) {
+        project(lat, lon, outJ, outI);
+        for (int k = 0; k < lat.length; k++) {
+            outI[k] = y - outI[k];
+        }
+    }
+
+    /**
+     * Projects one coordinate.
+     *
+     * @param lat latitude [deg N]
+     * @param lon longitude [deg E]
+     * @param out array of length 2 for (x,y) position indices. (0,0) is the
+     * UPPER left corner.
+     * @return out
+     */
+    public double[] project(double lat, double lon, double[] out) {
+        double phi = lat * TO_RAD;
+        double dLambda = lon * TO_RAD - LAMBDA0;
+        double r = SCALE * Math.cos(phi) / (1 + Math.sin(phi));
+        out[0] = (r * Math.sin(dLambda) - x0) / resolution;
+        out[1] = y - (-r * Math.cos(dLambda) - y0) / resolution;
+        return out;
+    }
+
+    /**
+     * Exact inverse projection of data indices.
+     *
+     * @param i row (0=South), may be fractional
+     * @param j column (0=West), may be fractional
+     * @param out array of length 2 for (lat,lon)
+     * @return out
+     */
+    public double[] getLatLonForDataIndex(double i, double j, double[] out) {
+        double px = x0 + j * resolution;
+        double py = y0 + i * resolution;
+        double r = Math.sqrt(px * px + py * py);
+        out[0] = (Math.PI / 2. - 2. * Math.atan(r / SCALE)) / TO_RAD;
+        out[1] = (LAMBDA0 + Math.atan2(px, -py)) / TO_RAD;
+        return out;
+    }
+
+    /**
+     * Latitudes of all cell centers, row-major (index i*x+j). Calculated once
+     * and shared.
+     *
+     * @return [deg N] not copied, do not modify.
+     */
+    public float[] getCellLatitudes() {
+        if (cellLatitudes == null) {
+            calculateCellGrids();
+        }
+        return cellLatitudes;
+    }
+
+    /**
+     * Longitudes of all cell centers, row-major (index i*x+j). Calculated
+     * once and shared.
+     *
+     * @return [deg E] not copied, do not modify.
+     */
+    public float[] getCellLongitudes() {
+        if (cellLongitudes == null) {
+            calculateCellGrids();
+        }
+        return cellLongitudes;
+    }
+
+    /**
+     * Area of all cells on the earth's surface, row-major (index i*x+j).
+     * Cells are smaller than resolution^2 south of 60 deg N. Calculated once and
+     * shared.
+     *
+     * @return [km^2] not copied, do not modify.
+     */
+    public float[] getCellAreas() {
+        if (cellAreas == null) {
+            calculateCellGrids();
+        }
+        return cellAreas;
+    }
+
+    private synchronized void calculateCellGrids() {
+        if (cellAreas != null) {
+            return;
+        }
+        float[] lat = new float[x * y];
+        float[] lon = new float[x * y];
+        float[] area = new float[x * y];
+        calculateCellGrids(lat, lon, area);
+        cellLatitudes = lat;
+        cellLongitudes = lon;
+        cellAreas = area;
+    }
+
+    private void calculateCellGrids(float[] lat, float[] lon, float[] area) {
+        double cell = resolution * resolution;
+        for (int i = 0; i < y; i++) {
+            double py = y0 + (i + 0.5) * resolution;
+            for (int j = 0; j < x; j++) {
+                double px = x0 + (j + 0.5) * resolution;
+                double phi = Math.PI / 2. - 2. * Math.atan(Math.sqrt(px * px + py * py) / SCALE);
+                int index = i * x + j;
+                lat[index] = (float) (phi / TO_RAD);
+                lon[index] = (float) ((LAMBDA0 + Math.atan2(px, -py)) / TO_RAD);
+                //Scale factor of the projection at this latitude
+                double m = (1 + Math.sin(60. * TO_RAD)) / (1 + Math.sin(phi));
+                area[index] = (float) (cell / (m * m));
+            }
+        }
+    }
+
+    /**
+     * Maps the cell center coordinates and areas from a file. The file is
+     * created if it does not exist or its header does not fit to this grid.
+     * Layout: a header of 64 bytes (magic, version, x, y, x0, y0,
+     * resolution), then x*y latitudes, x*y longitudes, x*y areas as little
+     * endian floats.
+     *
+     * @param file
+     * @return {latitudes, longitudes, areas} row-major (index i*x+j)
+     * @throws IOException
+     */
+    public FloatBuffer[] mapCellGrids(File file) throws IOException {
+        long cells = (long) x * y;
+        long size = CELL_GRIDS_HEADER_BYTES + 3 * cells * 4;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = cellGridsHeader();
+            if (channel.size() != size || !header.equals(readHeader(channel))) {
+                float[] lat = getCellLatitudes(), lon = getCellLongitudes(), area = getCellAreas();
+                channel.truncate(0);
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.position(CELL_GRIDS_HEADER_BYTES);
+                ByteBuffer bb = ByteBuffer.allocate((int) (cells * 4)).order(ByteOrder.LITTLE_ENDIAN);
+                for (float[] values : new float[][]{lat, lon, area}) {
+                    bb.clear();
+                    bb.asFloatBuffer().put(values);
+                    while (bb.hasRemaining()) {
+                        channel.write(bb);
+                    }
+                }
+            }
+            FloatBuffer[] grids = new FloatBuffer[3];
+            for (int g = 0; g < 3; g++) {
+                grids[g] = channel.map(FileChannel.MapMode.READ_ONLY, CELL_GRIDS_HEADER_BYTES + g * cells * 4, cells * 4).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            }
+            return grids;
+        }
+    }
+
+    /**
+     * Header of the cell grid file of this grid.
+     */
+    private ByteBuffer cellGridsHeader() {
+        ByteBuffer header = ByteBuffer.allocate(CELL_GRIDS_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(CELL_GRIDS_MAGIC).putInt(CELL_GRIDS_VERSION).putInt(x).putInt(y);
+        header.putDouble(x0).putDouble(y0).putDouble(resolution);
+        header.clear();
+        return header;
+    }
+
+    /**
+     * Header of an existing cell grid file.
+     */
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(CELL_GRIDS_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                break;
+            }
+        }
+        header.clear();
+        return header;
+    }
+}
@@ -23,16 +23,32 @@
  */
 package rain.radolan;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.GregorianCalendar;
-import java.util.TimeZone;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -46,174 +62,689 @@ import java.util.zip.GZIPInputStream;
 public class RadolanReader {
 
     /**
-     * If file is zipped, it is decrypted to temp-directory first and
-     * readRawData afterwards.
+     * Buffer size for reading and inflating streams. One RQ product is ~1.6
+     * MB decompressed.
+     */
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * If file is zipped, it is inflated into memory first and decoded
+     * afterwards. No temporary file is written. The values are stored in
+     * {@link RadolanData#values}.
      *
      * @param gzipFile
      * @return
      * @throws IOException
      */
     public static RadolanData readFile(File gzipFile) throws IOException {
-        byte[] buffer = new byte[1024];
-        //Create temporary file
-        File decompressedFile;
-        boolean deletatEnd = false;
-        if (gzipFile.getName().endsWith(".gz")) {
-            //FIle needs to be decrypted first.
-            decompressedFile = File.createTempFile(gzipFile.getName(), "");
-            decompressedFile.deleteOnExit();
-            try {
+        return readFile(gzipFile, false);
+    }
 
-                FileInputStream fileIn = new FileInputStream(gzipFile);
+    /**
+     * If file is zipped, it is inflated into memory first and decoded
+     * afterwards. No temporary file is written.
+     *
+     * @param file raw or gzip (*.gz) compressed file
+     * @param compact keep the values only in the flat grid of
+     * {@link RadolanData#getGrid()}, {@link RadolanData#values} stays null.
+     * Otherwise the values are stored in {@link RadolanData#values}.
+     * @return
+     * @throws IOException
+     */
+    public static RadolanData readFile(File file, boolean compact) throws IOException {
+        return read(load(file), compact);
+    }
+
+    /**
+     * Reads only the header of a file.
+     *
+     * @param file raw or gzip (*.gz) compressed file
+     * @return
+     * @throws IOException
+     */
+    public static RadolanHeader readHeader(File file) throws IOException {
+        return readCells(file, new int[0], new int[0]).header;
+    }
 
-                GZIPInputStream gZIPInputStream = new GZIPInputStream(fileIn);
+    /**
+     * Reads only the requested cells of a file. Raw files are read at the
+     * byte offsets of the cells, gzip files (*.gz) are inflated only up to
+     * the last requested cell.
+     *
+     * @param file raw or gzip (*.gz) compressed file
+     * @param i rows (0=South)
+     * @param j columns (0=West)
+     * @return values of the requested cells and header of the file.
+     * @throws IOException if the file can not be read or a cell is outside
+     * the grid.
+     */
+    public static RadolanExtract readCells(File file, int[] i, int[] j) throws IOException {
+        if (i.length != j.length) {
+            throw new IllegalArgumentException("Number of rows (" + i.length + ") and columns (" + j.length + ") differ.");
+        }
+        if (file.getName().endsWith(".gz")) {
+            try (GZIPInputStream in = new GZIPInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE)) {
+                return readCells(in, i, j);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            RadolanHeader header = readHeader(channel, file);
+            int[] cells = cellIndices(header, i, j);
+            int[] values = new int[cells.length];
+            //Read cells ordered by their position, neighbouring cells at once.
+            Integer[] order = new Integer[cells.length];
+            for (int n = 0; n < order.length; n++) {
+                order[n] = n;
+            }
+            final int[] c = cells;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Integer.compare(c[o1], c[o2]);
+                }
+            });
+            RadolanProductDecoder decoder = header.getDecoder();
+            int bytes = header.bytesPerValue;
+            short[] cell = new short[1];
+            ByteBuffer range = ByteBuffer.allocate(4096);
+            int n = 0;
+            while (n < order.length) {
+                int first = cells[order[n]];
+                int last = first;
+                int m = n + 1;
+                while (m < order.length && (cells[order[m]] - first + 1) * bytes <= range.capacity()) {
+                    last = cells[order[m]];
+                    m++;
+                }
+                range.clear();
+                range.limit((last - first + 1) * bytes);
+                long start = header.positionBody + (long) bytes * first;
+                int bytes_read = 0;
+                while (range.hasRemaining() && bytes_read >= 0) {
+                    bytes_read = channel.read(range, start + range.position());
+                }
+                range.flip();
+                for (int k = n; k < m; k++) {
+                    decoder.decode(range, (cells[order[k]] - first) * bytes, 1, cell, 0);
+                    values[order[k]] = RadolanData.toInt(cell[0]);
+                }
+                n = m;
+            }
+            return new RadolanExtract(header, i, j, values);
+        }
+    }
 
-                FileOutputStream fileOutputStream = new FileOutputStream(decompressedFile);
+    /**
+     * Reads the header at the beginning of a raw file.
+     */
+    private static RadolanHeader readHeader(FileChannel channel, File file) throws IOException {
+        //Header is only a few hundred bytes long.
+        ByteBuffer head = ByteBuffer.allocate(1024);
+        int etx = -1;
+        while (etx < 0) {
+            int position = head.position();
+            if (channel.read(head, position) < 0) {
+                throw new IOException("No end of header (ETX) found in " + file);
+            }
+            for (int p = position; p < head.position(); p++) {
+                if (head.get(p) == RadolanHeader.ETX) {
+                    etx = p;
+                    break;
+                }
+            }
+            if (etx < 0 && !head.hasRemaining()) {
+                head = ByteBuffer.allocate(head.capacity() * 2).put(head.flip());
+            }
+        }
+        head.flip();
+        return RadolanHeader.parse(head);
+    }
 
-                int bytes_read;
+    /**
+     * Decodes only a rectangular region of a file into a smaller frame with
+     * adjusted corner coordinates and a sub grid projection. Raw files are
+     * read from the first to the last needed cell only, gzip files (*.gz)
+     * are inflated up to the last needed cell.
+     *
+     * @param file raw or gzip (*.gz) compressed file
+     * @param i0 first row (0=South)
+     * @param j0 first column (0=West)
+     * @param rows number of rows
+     * @param columns number of columns
+     * @return
+     * @throws IOException if the file can not be read or the region is not
+     * inside the grid.
+     */
+    public static RadolanData readRegion(File file, int i0, int j0, int rows, int columns) throws IOException {
+        if (file.getName().endsWith(".gz")) {
+            try (GZIPInputStream in = new GZIPInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE)) {
+                return readRegion(in, i0, j0, rows, columns);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            RadolanHeader header = readHeader(channel, file);
+            checkRegion(header, i0, j0, rows, columns);
+            long first = header.positionBody + header.bytesPerValue * ((long) i0 * header.x + j0);
+            ByteBuffer block = ByteBuffer.allocate(header.bytesPerValue * ((rows - 1) * header.x + columns));
+            int bytes_read = 0;
+            while (block.hasRemaining() && bytes_read >= 0) {
+                bytes_read = channel.read(block, first + block.position());
+            }
+            block.flip();
+            return decodeRegion(header, block, i0, j0, rows, columns);
+        }
+    }
 
-                while ((bytes_read = gZIPInputStream.read(buffer)) > 0) {
+    /**
+     * Decodes a region of a lat/lon box. See
+     * {@link #readRegion(java.io.File, int, int, int, int)}.
+     *
+     * @param file raw or gzip (*.gz) compressed file
+     * @param latMin [deg N]
+     * @param lonMin [deg E]
+     * @param latMax [deg N]
+     * @param lonMax [deg E]
+     * @return smallest region containing the box
+     * @throws IOException if the file can not be read, the grid is unknown or
+     * the box is outside of the grid.
+     */
+    public static RadolanData readRegion(File file, double latMin, double lonMin, double latMax, double lonMax) throws IOException {
+        RadolanHeader header = readHeader(file);
+        RadolanProjection projection = RadolanProjection.forGrid(header.x, header.y, header.text);
+        if (projection == null) {
+            throw new IOException("No projection known for " + header.x + "x" + header.y + " grid of " + file);
+        }
+        int[] bounds = projection.getDataIndexBounds(latMin, lonMin, latMax, lonMax);
+        return readRegion(file, bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
 
-                    fileOutputStream.write(buffer, 0, bytes_read);
+    /**
+     * Decodes a region from an uncompressed stream. The stream is read up to
+     * the last needed cell and not closed.
+     *
+     * @param in raw binary Radolan content
+     * @param i0 first row (0=South)
+     * @param j0 first column (0=West)
+     * @param rows number of rows
+     * @param columns number of columns
+     * @return
+     * @throws IOException
+     */
+    public static RadolanData readRegion(InputStream in, int i0, int j0, int rows, int columns) throws IOException {
+        byte[] head = new byte[4096];
+        int length = 0;
+        int etx = -1;
+        while (etx < 0) {
+            if (length == head.length) {
+                head = Arrays.copyOf(head, head.length * 2);
+            }
+            int bytes_read = in.read(head, length, head.length - length);
+            if (bytes_read < 0) {
+                throw new IOException("No end of header (ETX) found.");
+            }
+            for (int p = length; p < length + bytes_read; p++) {
+                if (head[p] == RadolanHeader.ETX) {
+                    etx = p;
+                    break;
                 }
-                deletatEnd = true;
-                gZIPInputStream.close();
-                fileOutputStream.close();
-            } catch (IOException ex) {
-                ex.printStackTrace();
             }
+            length += bytes_read;
+        }
+        RadolanHeader header = RadolanHeader.parse(ByteBuffer.wrap(head, 0, length));
+        checkRegion(header, i0, j0, rows, columns);
+        long first = header.positionBody + header.bytesPerValue * ((long) i0 * header.x + j0);
+        byte[] block = new byte[header.bytesPerValue * ((rows - 1) * header.x + columns)];
+        int filled = 0;
+        if (first < length) {
+            filled = (int) Math.min(block.length, length - first);
+            System.arraycopy(head, (int) first, block, 0, filled);
         } else {
-            decompressedFile = gzipFile;
+            long skip = first - length;
+            while (skip > 0) {
+                long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        break;
+                    }
+                    skipped = 1;
+                }
+                skip -= skipped;
+            }
+        }
+        int bytes_read = 0;
+        while (filled < block.length && bytes_read >= 0) {
+            bytes_read = in.read(block, filled, block.length - filled);
+            if (bytes_read > 0) {
+                filled += bytes_read;
+            }
+        }
+        return decodeRegion(header, ByteBuffer.wrap(block, 0, filled), i0, j0, rows, columns);
+    }
+
+    private static void checkRegion(RadolanHeader header, int i0, int j0, int rows, int columns) throws IOException {
+        if (i0 < 0 || j0 < 0 || rows <= 0 || columns <= 0 || i0 + rows > header.y || j0 + columns > header.x) {
+            throw new IOException("Region " + rows + "x" + columns + " at (" + i0 + "," + j0 + ") is not inside the " + header.x + "x" + header.y + " grid.");
+        }
+    }
+
+    /**
+     * Decodes the needed columns of each row.
+     *
+     * @param block content from the first to the last needed cell
+     */
+    private static RadolanData decodeRegion(RadolanHeader header, ByteBuffer block, int i0, int j0, int rows, int columns) {
+        RadolanProductDecoder decoder = header.getDecoder();
+        short[] grid = new short[rows * columns];
+        for (int i = 0; i < rows; i++) {
+            decoder.decode(block, header.bytesPerValue * i * header.x, columns, grid, i * columns);
+        }
+        RadolanProjection full = RadolanProjection.forGrid(header.x, header.y, header.text);
+        RadolanProjection sub = full != null ? full.subGrid(i0, j0, rows, columns) : null;
+        return scale(createData(header.product, grid, columns, rows, header.leadTime, header.productionTime, sub), header);
+    }
+
+    /**
+     * Reads only the requested cells from an uncompressed stream. The stream
+     * is read up to the last requested cell and not closed.
+     *
+     * @param in raw binary Radolan content
+     * @param i rows (0=South)
+     * @param j columns (0=West)
+     * @return
+     * @throws IOException
+     */
+    public static RadolanExtract readCells(InputStream in, int[] i, int[] j) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int length = 0;
+        int etx = -1;
+        int needed = Integer.MAX_VALUE;
+        RadolanHeader header = null;
+        int[] cells = null;
+        int bytes_read = 0;
+        while (length < needed && bytes_read >= 0) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, Math.max(needed, buffer.length + 1)));
+            }
+            bytes_read = in.read(buffer, length, Math.min(buffer.length, needed) - length);
+            if (bytes_read > 0) {
+                int from = length;
+                length += bytes_read;
+                if (etx < 0) {
+                    for (int p = from; p < length; p++) {
+                        if (buffer[p] == RadolanHeader.ETX) {
+                            etx = p;
+                            header = RadolanHeader.parse(ByteBuffer.wrap(buffer, 0, length));
+                            cells = cellIndices(header, i, j);
+                            int max = 0;
+                            for (int cell : cells) {
+                                max = Math.max(max, cell);
+                            }
+                            needed = header.positionBody + header.bytesPerValue * (max + 1);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        if (header == null) {
+            throw new IOException("No end of header (ETX) found.");
+        }
+        ByteBuffer bb = ByteBuffer.wrap(buffer, 0, length);
+        RadolanProductDecoder decoder = header.getDecoder();
+        short[] cell = new short[1];
+        int[] values = new int[cells.length];
+        for (int n = 0; n < cells.length; n++) {
+            decoder.decode(bb, header.positionBody + header.bytesPerValue * cells[n], 1, cell, 0);
+            values[n] = RadolanData.toInt(cell[0]);
         }
-        RadolanData r = readRawData(decompressedFile);
-        if (deletatEnd) {
+        return new RadolanExtract(header, i, j, values);
+    }
+
+    /**
+     * Reads the requested cells of an already decoded frame, e.g. from the
+     * {@link RadolanCache}. The header only carries product, production time,
+     * lead time, grid size and precision. Frames without a precision of the
+     * file are scaled with their factor.
+     *
+     * @param data
+     * @param i rows (0=South)
+     * @param j columns (0=West)
+     * @return
+     * @throws IOException if a cell is outside of the grid
+     */
+    public static RadolanExtract readCells(RadolanData data, int[] i, int[] j) throws IOException {
+        RadolanHeader header = new RadolanHeader();
+        header.product = data.product;
+        header.productionTime = data.productionTime;
+        header.leadTime = data.leadTime;
+        header.x = data.x;
+        header.y = data.y;
+        header.precision = !Double.isNaN(data.precision) ? data.precision : data.factor;
+        int[] cells = cellIndices(header, i, j);
+        int[] values = new int[cells.length];
+        for (int n = 0; n < cells.length; n++) {
+            values[n] = data.getValueIJ(i[n], j[n]);
+        }
+        return new RadolanExtract(header, i, j, values);
+    }
+
+    private static int[] cellIndices(RadolanHeader header, int[] i, int[] j) throws IOException {
+        int[] cells = new int[i.length];
+        for (int n = 0; n < cells.length; n++) {
+            if (i[n] < 0 || i[n] >= header.y || j[n] < 0 || j[n] >= header.x) {
+                throw new IOException("Cell (" + i[n] + "," + j[n] + ") is outside of the " + header.x + "x" + header.y + " grid.");
+            }
+            cells[n] = i[n] * header.x + j[n];
+        }
+        return cells;
+    }
+
+    /**
+     * Sets factor and offset of the product's decoder and the precision of
+     * the file.
+     *
+     * @return data
+     */
+    static RadolanData scale(RadolanData data, RadolanHeader header) {
+        RadolanProductDecoder decoder = header.getDecoder();
+        data.factor = (float) decoder.factor(header);
+        data.offset = (float) decoder.offset();
+        data.precision = header.precision;
+        return data;
+    }
+
+    /**
+     * Decodes many files in parallel. Results are handed to the listener in
+     * order of production time (taken from the yyMMddHHmm time stamp in the
+     * DWD file names, then the file name). At most maxInFlight files are
+     * decoded or waiting for delivery at the same time.
+     *
+     * @param files raw or gzip (*.gz) compressed files
+     * @param executor runs the decoding tasks
+     * @param maxInFlight upper bound for decoded frames held in memory
+     * @param listener receives every file exactly once, either decoded or
+     * failed.
+     * @throws InterruptedException if the calling thread is interrupted while
+     * waiting for a result.
+     */
+    public static void readAll(Collection<Path> files, Executor executor, int maxInFlight, RadolanBatchListener listener) throws InterruptedException {
+        List<Path> ordered = new ArrayList<>(files);
+        Collections.sort(ordered, PRODUCTION_TIME_ORDER);
+        ArrayDeque<Path> pendingFiles = new ArrayDeque<>(maxInFlight);
+        ArrayDeque<Future<RadolanData>> pending = new ArrayDeque<>(maxInFlight);
+        for (final Path file : ordered) {
+            while (pending.size() >= Math.max(1, maxInFlight)) {
+                deliver(pendingFiles.poll(), pending.poll(), listener);
+            }
+            FutureTask<RadolanData> task = new FutureTask<>(new Callable<RadolanData>() {
+                @Override
+                public RadolanData call() throws Exception {
+                    return readFile(file.toFile(), true);
+                }
+            });
+            pendingFiles.add(file);
+            pending.add(task);
             try {
-                decompressedFile.delete();
-            } catch (Exception e) {
-                e.printStackTrace();
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
             }
         }
-        return r;
+        while (!pending.isEmpty()) {
+            deliver(pendingFiles.poll(), pending.poll(), listener);
+        }
+    }
 
+    /**
+     * Decodes many files on the common fork-join pool. See
+     * {@link #readAll(java.util.Collection, java.util.concurrent.Executor, int, rain.radolan.RadolanBatchListener)}.
+     *
+     * @param files raw or gzip (*.gz) compressed files
+     * @param listener
+     * @throws InterruptedException
+     */
+    public static void readAll(Collection<Path> files, RadolanBatchListener listener) throws InterruptedException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        readAll(files, pool, 2 * pool.getParallelism() + 1, listener);
     }
 
-    public static RadolanData readRawData(File f) throws IOException {
+    private static void deliver(Path file, Future<RadolanData> result, RadolanBatchListener listener) throws InterruptedException {
+        RadolanData data;
+        try {
+            data = result.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            listener.failed(file, cause instanceof Exception ? (Exception) cause : ex);
+            return;
+        }
+        listener.decoded(file, data);
+    }
+
+    /**
+     * Orders DWD file names by the first 10 digit (yyMMddHHmm) time stamp in
+     * their names. Names without time stamp are sorted by name.
+     */
+    static final Comparator<Path> PRODUCTION_TIME_ORDER = new Comparator<Path>() {
+        @Override
+        public int compare(Path o1, Path o2) {
+            String n1 = o1.getFileName().toString();
+            String n2 = o2.getFileName().toString();
+            int c = Long.compare(timeStamp(n1), timeStamp(n2));
+            return c != 0 ? c : n1.compareTo(n2);
+        }
+    };
 
-        FileInputStream fis = new FileInputStream(f);
-        InputStreamReader sr = new InputStreamReader(fis);
-        BufferedReader br = new BufferedReader(sr);
-
-        String line = br.readLine();
-//        System.out.println(line);
-        //Read header
-        String product = line.substring(0, 2);
-        int day = Integer.parseInt(line.substring(2, 4));
-        int hour = Integer.parseInt(line.substring(4, 6));
-        int minute = Integer.parseInt(line.substring(6, 8));
-        String radarID = line.substring(8, 13);
-        int month = Integer.parseInt(line.substring(13, 15));
-        int year = Integer.parseInt(line.substring(15, 17));
-
-        int markeBY = line.indexOf("BY");
-        if (!line.substring(17, 19).equals("BY")) {
-            System.err.println("Exception: BY not at location 17");
-            return null;
-        }
-        //Create UTC time object (DWD data is in UTC timezone format)
-        GregorianCalendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
-        cal.set(GregorianCalendar.YEAR, year + 2000);
-        cal.set(GregorianCalendar.MONTH, month - 1);
-        cal.set(GregorianCalendar.DAY_OF_MONTH, day);
-        cal.set(GregorianCalendar.HOUR_OF_DAY, hour);
-        cal.set(GregorianCalendar.MINUTE, minute);
-        cal.set(GregorianCalendar.SECOND, 0);
-        cal.set(GregorianCalendar.MILLISECOND, 0);
-
-        int markeVS = line.indexOf("VS");
-        int contentLength = Integer.parseInt(line.substring(markeBY + 2, markeVS));
-
-        int markeSW = line.indexOf("SW", markeBY);
-        int markeINT = line.indexOf("INT", markeSW);
-        int markeGP = line.indexOf("GP", markeINT);
-        int markeVV = line.indexOf("VV", markeGP);
-        int markeMF = line.indexOf("MF", markeVV);
-        int markeMS = line.indexOf("MS", markeMF);
-
-        int lengthText = Integer.parseInt(line.substring(markeMS + 2, line.indexOf("<", markeMS)).trim());
-        int markeST = line.indexOf("ST", markeMS + lengthText);
-
-        int markeETX = line.indexOf('\u0003');
-        if (markeETX < 0) {
-            markeETX = line.indexOf("\\x03");
-        }
-        //Grid size
-
-        String grid;
-        if (markeVV < 0) {
-            if (markeMF < 0) {
-                grid = line.substring(markeGP + 2, markeMS);
+    /**
+     * First run of exactly 10 digits in the name (yyMMddHHmm).
+     *
+     * @param name
+     * @return time stamp as number or Long.MAX_VALUE if there is none.
+     */
+    static long timeStamp(String name) {
+        int run = 0;
+        for (int p = 0; p <= name.length(); p++) {
+            if (p < name.length() && Character.isDigit(name.charAt(p))) {
+                run++;
             } else {
-                grid = line.substring(markeGP + 2, markeMF);
+                if (run == 10) {
+                    return Long.parseLong(name.substring(p - 10, p));
+                }
+                run = 0;
             }
-        } else {
-            grid = line.substring(markeGP + 2, markeVV);
         }
-        int posX = grid.indexOf("x");
-        int x = Integer.parseInt(grid.substring(0, posX).trim());
-        int y = Integer.parseInt(grid.substring(posX + 1).trim());
+        return Long.MAX_VALUE;
+    }
 
-        //Forecast time (lead time) [Minutes]
-        int leadTime;
-        if (markeVV < 0) {
-            leadTime = -1;
-        } else {
-            leadTime = Integer.parseInt(line.substring(markeVV + 2, markeMF).trim());
-        }
-
-//        System.out.println("Grid:" + x + "x " + y);
-//        System.out.println("Leadtime:" + leadTime + "min");
-//        System.out.println("Information: " + contentLength + " byte");
-
-        br.close();
-        sr.close();
-        fis.close();
-
-        fis = new FileInputStream(f);
-
-        //Read value grid
-        byte[] buffer = new byte[contentLength];
-        //Jump to content start point
-        fis.skip(markeETX + 2);
-        fis.read(buffer);
-        ByteBuffer bb = ByteBuffer.wrap(buffer);
-        bb.order(ByteOrder.BIG_ENDIAN);
-        int[][] values = new int[y][x];
-        //Values are stored horizontal line-wise
-        for (int i = 0; i < y; i++) {
-            for (int j = 0; j < x; j++) {
-                //decode 2-byte content
-                int complete = bb.getShort();
-
-                //Value only in bit 1-12
-                int v = complete & 0x0FFF;
-
-                if (v != 0) {
-                    if ((complete & 0x8000) != 0) {
-                        //Clutter Mark
-                    }
-                    if ((complete & 0x2000) != 0) {
-                        //Error mark
-                        v = Integer.MIN_VALUE;
-                    }
-                    if ((complete & 0x4000) != 0) {
-                        //Negative value
-                        v = -v;
-                    }
-                }
-                values[i][j] = v;
+    /**
+     * Decodes the file directly into slot k of the stack. No RadolanData
+     * object is created.
+     *
+     * @param file raw or gzip (*.gz) compressed file
+     * @param stack target with the same grid size as the file
+     * @param k slot
+     * @return header of the file
+     * @throws IOException
+     */
+    public static RadolanHeader readFile(File file, RadolanGridStack stack, int k) throws IOException {
+        ByteBuffer bb = load(file);
+        RadolanHeader header = RadolanHeader.parse(bb);
+        decode(bb, header, stack, k, file.getName());
+        return header;
+    }
+
+    /**
+     * Decodes the values of a parsed file directly into slot k of the stack.
+     *
+     * @param bb raw binary Radolan content
+     * @param header parsed header of bb
+     * @param stack target with the same grid size as the file
+     * @param k slot
+     * @param name of the file for error messages
+     * @throws IOException if the grid size or the precision differs from the
+     * stack.
+     */
+    static void decode(ByteBuffer bb, RadolanHeader header, RadolanGridStack stack, int k, String name) throws IOException {
+        if (header.x != stack.getX() || header.y != stack.getY()) {
+            throw new IOException("Grid " + header.x + "x" + header.y + " of " + name + " does not fit into stack of " + stack.getX() + "x" + stack.getY());
+        }
+        RadolanProductDecoder decoder = header.getDecoder();
+        try {
+            stack.setScaling((float) decoder.factor(header), (float) decoder.offset());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(name + ": " + ex.getMessage(), ex);
+        }
+        ShortBuffer frame = stack.frame(k);
+        short[] row = new short[header.x];
+        for (int i = 0; i < header.y; i++) {
+            decoder.decode(bb, header.positionBody + i * header.x * header.bytesPerValue, header.x, row, 0);
+            frame.put(row);
+        }
+        stack.setMetadata(k, header.product, header.productionTime.getTimeInMillis(), header.leadTime);
+    }
+
+    /**
+     * Loads the complete file into memory. gzip compressed files (*.gz) are
+     * inflated.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static ByteBuffer load(File file) throws IOException {
+        if (file.getName().endsWith(".gz")) {
+            //File needs to be decompressed first.
+            try (GZIPInputStream gZIPInputStream = new GZIPInputStream(new FileInputStream(file), STREAM_BUFFER_SIZE)) {
+                return readFully(gZIPInputStream);
             }
         }
+        return readRawBytes(file);
+    }
+
+    public static RadolanData readRawData(File f) throws IOException {
+        return read(readRawBytes(f), false);
+    }
+
+    private static ByteBuffer readRawBytes(File f) throws IOException {
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + f);
+            }
+            ByteBuffer bb = ByteBuffer.allocate((int) size);
+            int bytes_read = 0;
+            while (bb.hasRemaining() && bytes_read >= 0) {
+                bytes_read = channel.read(bb);
+            }
+            bb.flip();
+            return bb;
+        }
+    }
+
+    /**
+     * Reads the complete (already decompressed) stream into memory and
+     * decodes it into a compact frame. The stream is not closed.
+     *
+     * @param in raw binary Radolan content
+     * @return
+     * @throws IOException
+     */
+    public static RadolanData read(InputStream in) throws IOException {
+        return read(readFully(in));
+    }
+
+    /**
+     * Reads the stream to its end. The stream is not closed.
+     */
+    static ByteBuffer readFully(InputStream in) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int length = 0;
+        int bytes_read;
+        while ((bytes_read = in.read(buffer, length, buffer.length - length)) >= 0) {
+            length += bytes_read;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return ByteBuffer.wrap(buffer, 0, length);
+    }
+
+    /**
+     * Decodes header and value grid from the buffer's position to its limit
+     * into a compact frame. The header is parsed on the raw bytes and the
+     * values are decoded from the same buffer.
+     *
+     * @param bb raw binary Radolan content
+     * @return
+     * @throws IOException
+     */
+    public static RadolanData read(ByteBuffer bb) throws IOException {
+        return read(bb, true);
+    }
+
+    /**
+     * Decodes header and value grid from the buffer's position to its limit.
+     *
+     * @param bb raw binary Radolan content
+     * @param compact false to store the values in {@link RadolanData#values}
+     * @return
+     * @throws IOException
+     */
+    static RadolanData read(ByteBuffer bb, boolean compact) throws IOException {
+        RadolanHeader header = RadolanHeader.parse(bb);
+        String product = header.product;
+        int x = header.x;
+        int y = header.y;
+        int leadTime = header.leadTime;
+        GregorianCalendar cal = header.productionTime;
+
+        short[] grid = new short[x * y];
+        header.getDecoder().decode(bb, header.positionBody, x * y, grid, 0);
+
+        RadolanData data = scale(createData(product, grid, x, y, leadTime, cal, RadolanProjection.forGrid(x, y, header.text)), header);
+        if (!compact) {
+            data.expand();
+        }
+        return data;
+    }
+
+    /**
+     * Creates the data object for a decoded grid with the corner coordinates
+     * of the grid size.
+     *
+     * @param grid row-major values in compact format
+     * @return
+     */
+    static RadolanData createData(String product, short[] grid, int x, int y, int leadTime, GregorianCalendar cal) {
+        return createData(product, grid, x, y, leadTime, cal, null);
+    }
 
+    /**
+     * Creates the data object for a decoded grid. Corner coordinates of sub
+     * grids and registered grids without tabulated corners are calculated from
+     * their projection. Unknown grids get NaN corners.
+     *
+     * @param grid row-major values in compact format
+     * @param projection sub grid projection, null for the grid size's corners.
+     * @return
+     */
+    static RadolanData createData(String product, short[] grid, int x, int y, int leadTime, GregorianCalendar cal, RadolanProjection projection) {
+        //Corners of the DWD grid definitions for RQ/RW (900x900) and RV (900x1100)
+        boolean tabulated = x == 900 && (y == 900 || y == 1100);
+        if (projection == null && !tabulated) {
+            projection = RadolanProjection.forGrid(x, y);
+            if (projection == null) {
+                Logger.getLogger(RadolanReader.class.getName()).log(Level.WARNING, "Do not know corners for x={0} , y={1} grid. Coordinates are not available.", new Object[]{x, y});
+            }
+        }
+        if (projection != null && (projection.parent != null || !tabulated)) {
+            double[] ll = projection.getLatLonForDataIndex(0, 0, new double[2]);
+            double[] ul = projection.getLatLonForDataIndex(y, 0, new double[2]);
+            double[] lr = projection.getLatLonForDataIndex(0, x, new double[2]);
+            double[] ur = projection.getLatLonForDataIndex(y, x, new double[2]);
+            RadolanData data = new RadolanData(product, grid, x, y, leadTime, cal, ll[0], ll[1], ul[0], ul[1], lr[0], lr[1], ur[0], ur[1]);
+            data.projection = projection;
+            return data;
+        }
         double lowerleftLat, lowerleftLon, upperleftLat, upperleftLon, lowerRightLat, lowerRightLon, upperRightLat, upperRightLon;
         if (x == 900 && y == 900) {
             lowerleftLat = 46.9526;
@@ -236,18 +767,101 @@ public class RadolanReader {
             upperRightLat = 55.5342;
             upperRightLon = 17.1128;
         } else {
-            System.err.println("Do not know corners for x=" + x + " , y=" + y + " grid.");
-            lowerleftLat = 46.9526;
-            lowerleftLon = 3.5889;
-            upperleftLat = 54.5877;
-            upperleftLon = 2.0715;
+            lowerleftLat = lowerleftLon = upperleftLat = upperleftLon = Double.NaN;
+            lowerRightLat = lowerRightLon = upperRightLat = upperRightLon = Double.NaN;
+        }
+        return new RadolanData(product, grid, x, y, leadTime, cal, lowerleftLat, lowerleftLon, upperleftLat, upperleftLon, lowerRightLat, lowerRightLon, upperRightLat, upperRightLon);
+    }
 
-            lowerRightLat = 47.0705;
-            lowerRightLon = 14.6209;
-            upperRightLat = 54.7405;
-            upperRightLon = 15.7208;
+    /**
+     * Decodes the 2-byte values of a x*y grid into the compact storage format
+     * of {@link RadolanData}. Values are stored horizontal line-wise, starting
+     * at the lower left corner.
+     *
+     * @param bb raw binary Radolan content
+     * @param positionBody absolute position of the first value byte
+     * @param x number of columns
+     * @param y number of rows
+     * @param target row-major grid
+     * @param offset index of the first cell in target
+     */
+    static void decodeBody(ByteBuffer bb, int positionBody, int x, int y, short[] target, int offset) {
+        int cells = x * y;
+        int limit = bb.limit();
+        //Number of complete 2-byte words in the buffer
+        int complete = (int) Math.max(0, Math.min(cells, (limit - (long) positionBody) / 2));
+        if (bb.hasArray()) {
+            decodeWords(bb.array(), bb.arrayOffset() + positionBody, target, offset, complete);
+        } else {
+            byte[] chunk = new byte[Math.min(complete, 8192) * 2];
+            ByteBuffer src = bb.duplicate();
+            src.position(positionBody);
+            for (int k = 0; k < complete; k += chunk.length / 2) {
+                int n = Math.min(chunk.length / 2, complete - k);
+                src.get(chunk, 0, n * 2);
+                decodeWords(chunk, 0, target, offset + k, n);
+            }
+        }
+        int p = positionBody + complete * 2;
+        for (int k = complete; k < cells; k++, p += 2) {
+            //Missing trailing bytes are read as zero.
+            int word = p < limit ? (bb.get(p) & 0xFF) << 8 : 0;
+            target[offset + k] = decodeValue(word);
+        }
+    }
+
+    /**
+     * Decodes n 2-byte words. The loop works without branches on the flags
+     * to keep it short for the JIT compiler. There is no jdk.incubator.vector
+     * variant: the module is still incubating and every application using
+     * this library would have to start with --add-modules. The loop is
+     * compared with the former per cell decoder in RadolanDecodeBenchmark.
+     *
+     * @param src raw bytes
+     * @param srcPos index of the first byte
+     * @param target compact grid
+     * @param offset index of the first cell in target
+     * @param n number of words
+     */
+    static void decodeWords(byte[] src, int srcPos, short[] target, int offset, int n) {
+        for (int k = 0; k < n; k++) {
+            int p = srcPos + 2 * k;
+            int word = ((src[p] & 0xFF) << 8) | (src[p + 1] & 0xFF);
+            //Value only in bit 1-12
+            int v = word & 0x0FFF;
+            //Negative flag (0x4000) as 0 or -1
+            int negative = -((word >> 14) & 1);
+            int signed = (v ^ negative) - negative;
+            //Error flag (0x2000) only counts for values != 0. As 0 or -1
+            int error = -(((word >> 13) & 1) & ((v | -v) >>> 31));
+            target[offset + k] = (short) ((signed & ~error) | (RadolanData.NAN & error));
+        }
+    }
+
+    /**
+     * Decodes one flagged 2-byte word into the compact storage format.
+     *
+     * @param complete 2-byte word
+     * @return value or {@link RadolanData#NAN}
+     */
+    static short decodeValue(int complete) {
+        //Value only in bit 1-12
+        int v = complete & 0x0FFF;
+
+        if (v != 0) {
+            if ((complete & 0x8000) != 0) {
+                //Clutter Mark
+            }
+            if ((complete & 0x2000) != 0) {
+                //Error mark
+                return RadolanData.NAN;
+            }
+            if ((complete & 0x4000) != 0) {
+                //Negative value
+                v = -v;
+            }
         }
-        return new RadolanData(product, values, x, y, leadTime, cal, lowerleftLat, lowerleftLon, upperleftLat, upperleftLon, lowerRightLat, lowerRightLon, upperRightLat, upperRightLon);
+        return (short) v;
     }
 
     /**
@@ -0,0 +1,491 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Time-major index of Radolan frames for fast point and small region
+ * histories. Frames are collected in a staging {@link RadolanGridStack}.
+ * Whenever a block of {@link #getBlockLength()} frames is complete, it is
+ * transposed into spatial tiles in which the values of one cell over the
+ * whole block are stored next to each other. The history of a cell is then
+ * read with one sequential read per block.
+ * <br>
+ * Files in the index directory: "times.idx" (header and production times),
+ * "series.dat" (transposed blocks), "staging.stack" (frames of the
+ * incomplete block).
+ *
+ * @author saemann
+ */
+public class RadolanSeriesIndex implements Closeable {
+
+    private static final int MAGIC = 0x52445449;//"RDTI"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final int x, y, tileSize, blockLength;
+    private final FileChannel timesChannel, seriesChannel;
+    private final RadolanGridStack staging;
+    private long[] times;
+    private int size;
+
+    /**
+     * Byte offset of each cell (i*x+j) inside a block.
+     */
+    private final long[] cellOffsets;
+    private final long blockBytes;
+
+    private RadolanSeriesIndex(int x, int y, int tileSize, int blockLength, FileChannel timesChannel, FileChannel seriesChannel, RadolanGridStack staging) {
+        this.x = x;
+        this.y = y;
+        this.tileSize = tileSize;
+        this.blockLength = blockLength;
+        this.timesChannel = timesChannel;
+        this.seriesChannel = seriesChannel;
+        this.staging = staging;
+        this.blockBytes = (long) x * y * blockLength * 2;
+        this.cellOffsets = new long[x * y];
+        long offset = 0;
+        for (int ti = 0; ti < y; ti += tileSize) {
+            for (int tj = 0; tj < x; tj += tileSize) {
+                for (int i = ti; i < Math.min(y, ti + tileSize); i++) {
+                    for (int j = tj; j < Math.min(x, tj + tileSize); j++) {
+                        cellOffsets[i * x + j] = offset;
+                        offset += blockLength * 2;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a new, empty index. Existing index files in the directory are
+     * overwritten.
+     *
+     * @param directory
+     * @param x number of columns
+     * @param y number of rows
+     * @param tileSize edge length of the spatial tiles in cells
+     * @param blockLength number of frames per transposed block
+     * @return
+     * @throws IOException
+     */
+    public static RadolanSeriesIndex create(File directory, int x, int y, int tileSize, int blockLength) throws IOException {
+        directory.mkdirs();
+        FileChannel timesChannel = FileChannel.open(new File(directory, "times.idx").toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel seriesChannel = null;
+        try {
+            seriesChannel = FileChannel.open(new File(directory, "series.dat").toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+            header.putInt(MAGIC).putInt(VERSION).putInt(x).putInt(y).putInt(tileSize).putInt(blockLength);
+            header.clear();
+            writeFully(timesChannel, header, 0);
+            RadolanGridStack staging = RadolanGridStack.create(new File(directory, "staging.stack"), x, y, blockLength);
+            RadolanSeriesIndex index = new RadolanSeriesIndex(x, y, tileSize, blockLength, timesChannel, seriesChannel, staging);
+            index.times = new long[blockLength];
+            return index;
+        } catch (IOException e) {
+            timesChannel.close();
+            if (seriesChannel != null) {
+                seriesChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing index. After a crash, frames that are neither in a
+     * complete block nor in the staging area are dropped. A full staged block
+     * whose transposition was interrupted is transposed again.
+     *
+     * @param directory
+     * @return
+     * @throws IOException
+     */
+    public static RadolanSeriesIndex open(File directory) throws IOException {
+        FileChannel timesChannel = FileChannel.open(new File(directory, "times.idx").toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel seriesChannel = null;
+        try {
+            seriesChannel = FileChannel.open(new File(directory, "series.dat").toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long timesSize = timesChannel.size();
+            if (timesSize < HEADER_BYTES) {
+                throw new IOException("Not a Radolan series index: " + directory);
+            }
+            ByteBuffer bb = ByteBuffer.allocate((int) timesSize).order(ORDER);
+            readFully(timesChannel, bb, 0);
+            bb.flip();
+            if (bb.getInt() != MAGIC) {
+                throw new IOException("Not a Radolan series index: " + directory);
+            }
+            int version = bb.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported series index version " + version + ": " + directory);
+            }
+            int x = bb.getInt(), y = bb.getInt(), tileSize = bb.getInt(), blockLength = bb.getInt();
+            bb.position(HEADER_BYTES);
+            RadolanGridStack staging = RadolanGridStack.open(new File(directory, "staging.stack"));
+            RadolanSeriesIndex index = new RadolanSeriesIndex(x, y, tileSize, blockLength, timesChannel, seriesChannel, staging);
+            //Only complete blocks and staged frames count
+            int blocks = (int) (seriesChannel.size() / index.blockBytes);
+            int n = Math.min(bb.remaining() / 8, blocks * blockLength + blockLength);
+            index.times = new long[Math.max(blockLength, n + blockLength)];
+            for (int k = 0; k < n; k++) {
+                long time = bb.getLong();
+                //Frames after the complete blocks must be in the staging area
+                int slot = k - blocks * blockLength;
+                if (slot >= 0 && (!staging.isSet(slot) || staging.getProductionTime(slot) != time)) {
+                    n = k;
+                    break;
+                }
+                index.times[k] = time;
+            }
+            index.size = n;
+            seriesChannel.truncate(blocks * index.blockBytes);
+            timesChannel.truncate(HEADER_BYTES + 8L * n);
+            if (n == (blocks + 1) * blockLength) {
+                //Interrupted after the last frame of a block was staged
+                index.flushBlock();
+            } else {
+                index.clearStaging(n - blocks * blockLength);
+            }
+            return index;
+        } catch (IOException e) {
+            timesChannel.close();
+            if (seriesChannel != null) {
+                seriesChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    /**
+     *
+     * @return number of frames per transposed block
+     */
+    public int getBlockLength() {
+        return blockLength;
+    }
+
+    /**
+     *
+     * @return number of indexed frames
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @param n frame number
+     * @return production time in UTC milliseconds
+     */
+    public synchronized long getTime(int n) {
+        return times[n];
+    }
+
+    /**
+     * First frame with a production time at or after the given time.
+     *
+     * @param time UTC milliseconds
+     * @return frame number, size() if all frames are older.
+     */
+    public synchronized int indexOf(long time) {
+        int n = Arrays.binarySearch(times, 0, size, time);
+        return n >= 0 ? n : -n - 1;
+    }
+
+    /**
+     * Adds the next frame. Frames must be added in order of production time.
+     *
+     * @param frame
+     * @throws IOException
+     */
+    public synchronized void append(RadolanData frame) throws IOException {
+        long time = frame.productionTime.getTimeInMillis();
+        if (size > 0 && time <= times[size - 1]) {
+            throw new IOException("Frame of " + frame.productionTime.getTime() + " is not younger than the last indexed frame.");
+        }
+        int slot = size % blockLength;
+        if (slot == 0) {
+            //Frames of the previous block are transposed
+            clearStaging(0);
+        }
+        staging.setData(slot, frame);
+        addTime(time);
+        if (slot == blockLength - 1) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Decodes a file directly into the staging area and adds it.
+     *
+     * @param file raw or gzip (*.gz) compressed Radolan file
+     * @throws IOException
+     */
+    public synchronized void append(File file) throws IOException {
+        ByteBuffer bb = RadolanReader.load(file);
+        RadolanHeader header = RadolanHeader.parse(bb);
+        //Check the order before the staging slot is touched
+        long time = header.productionTime.getTimeInMillis();
+        if (size > 0 && time <= times[size - 1]) {
+            throw new IOException(file.getName() + " is not younger than the last indexed frame.");
+        }
+        int slot = size % blockLength;
+        if (slot == 0) {
+            //Frames of the previous block are transposed
+            clearStaging(0);
+        }
+        RadolanReader.decode(bb, header, staging, slot, file.getName());
+        addTime(time);
+        if (slot == blockLength - 1) {
+            flushBlock();
+        }
+    }
+
+    private void addTime(long time) throws IOException {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, times.length * 2);
+        }
+        ByteBuffer bb = ByteBuffer.allocate(8).order(ORDER);
+        bb.putLong(time);
+        bb.clear();
+        staging.force();
+        writeFully(timesChannel, bb, HEADER_BYTES + 8L * size);
+        times[size++] = time;
+    }
+
+    /**
+     * Transposes the full staging area into the next block. Works band-wise
+     * (tileSize rows of all frames) to read the staged frames sequentially.
+     */
+    private void flushBlock() throws IOException {
+        long blockStart = (long) (size / blockLength - 1) * blockBytes;
+        int bandCells = tileSize * x;
+        short[][] band = new short[blockLength][bandCells];
+        for (int ti = 0; ti < y; ti += tileSize) {
+            int rows = Math.min(tileSize, y - ti);
+            for (int k = 0; k < blockLength; k++) {
+                ShortBuffer frame = staging.frame(k);
+                frame.position(ti * x);
+                frame.get(band[k], 0, rows * x);
+            }
+            //Tiles of this band are stored one after the other.
+            long bandOffset = cellOffsets[ti * x];
+            ByteBuffer out = ByteBuffer.allocate(rows * x * blockLength * 2).order(ORDER);
+            for (int tj = 0; tj < x; tj += tileSize) {
+                for (int i = 0; i < rows; i++) {
+                    for (int j = tj; j < Math.min(x, tj + tileSize); j++) {
+                        int cell = i * x + j;
+                        out.position((int) (cellOffsets[(ti + i) * x + j] - bandOffset));
+                        for (int k = 0; k < blockLength; k++) {
+                            out.putShort(band[k][cell]);
+                        }
+                    }
+                }
+            }
+            out.clear();
+            writeFully(seriesChannel, out, blockStart + bandOffset);
+        }
+        seriesChannel.force(false);
+    }
+
+    /**
+     * Marks the staging slots from the given one on as empty.
+     */
+    private void clearStaging(int from) {
+        for (int k = from; k < blockLength; k++) {
+            staging.clear(k);
+        }
+        staging.force();
+    }
+
+    /**
+     * Values of one cell over a range of frames.
+     *
+     * @param i row (0=South)
+     * @param j column (0=West)
+     * @param n0 first frame
+     * @param count number of frames
+     * @param target array of at least length count or null
+     * @return values, Integer.MIN_VALUE for missing values.
+     * @throws IOException
+     */
+    public synchronized int[] readSeries(int i, int j, int n0, int count, int[] target) throws IOException {
+        if (n0 < 0 || n0 + count > size) {
+            throw new IndexOutOfBoundsException("Frames " + n0 + "-" + (n0 + count) + " not in index of " + size + " frames.");
+        }
+        if (target == null) {
+            target = new int[count];
+        }
+        int completeFrames = (size / blockLength) * blockLength;
+        long cellOffset = cellOffsets[i * x + j];
+        ByteBuffer bb = ByteBuffer.allocate(blockLength * 2).order(ORDER);
+        int n = n0;
+        while (n < n0 + count && n < completeFrames) {
+            int block = n / blockLength;
+            int from = n % blockLength;
+            int to = Math.min(blockLength, from + (n0 + count - n));
+            bb.clear();
+            bb.limit((to - from) * 2);
+            readFully(seriesChannel, bb, block * blockBytes + cellOffset + from * 2);
+            bb.flip();
+            for (int k = from; k < to; k++) {
+                target[n++ - n0] = RadolanData.toInt(bb.getShort());
+            }
+        }
+        for (; n < n0 + count; n++) {
+            target[n - n0] = staging.getValue(n - completeFrames, i, j);
+        }
+        return target;
+    }
+
+    /**
+     * Values of one cell between two points in time.
+     *
+     * @param i row (0=South)
+     * @param j column (0=West)
+     * @param from UTC milliseconds (inclusive)
+     * @param to UTC milliseconds (inclusive)
+     * @return {times, values}
+     * @throws IOException
+     */
+    public synchronized long[][] readSeries(int i, int j, long from, long to) throws IOException {
+        int n0 = indexOf(from);
+        int n1 = indexOf(to);
+        if (n1 < size && times[n1] == to) {
+            n1++;
+        }
+        int count = Math.max(0, n1 - n0);
+        int[] values = readSeries(i, j, n0, count, null);
+        long[][] result = new long[2][count];
+        for (int k = 0; k < count; k++) {
+            result[0][k] = times[n0 + k];
+            result[1][k] = values[k];
+        }
+        return result;
+    }
+
+    /**
+     * Values of a small rectangular region over a range of frames. Cells of
+     * one tile are read with one read per block.
+     *
+     * @param i0 first row (0=South)
+     * @param j0 first column (0=West)
+     * @param rows
+     * @param columns
+     * @param n0 first frame
+     * @param count number of frames
+     * @return [cell (row-major in region)][frame], Integer.MIN_VALUE for
+     * missing values.
+     * @throws IOException
+     */
+    public synchronized int[][] readRegion(int i0, int j0, int rows, int columns, int n0, int count) throws IOException {
+        if (n0 < 0 || n0 + count > size) {
+            throw new IndexOutOfBoundsException("Frames " + n0 + "-" + (n0 + count) + " not in index of " + size + " frames.");
+        }
+        int[][] result = new int[rows * columns][count];
+        int completeFrames = (size / blockLength) * blockLength;
+        for (int block = n0 / blockLength; block * blockLength < Math.min(n0 + count, completeFrames); block++) {
+            //Read each tile's range of the region at once
+            for (int ti = (i0 / tileSize) * tileSize; ti < i0 + rows; ti += tileSize) {
+                for (int tj = (j0 / tileSize) * tileSize; tj < j0 + columns; tj += tileSize) {
+                    int ri0 = Math.max(i0, ti), ri1 = Math.min(i0 + rows, ti + tileSize) - 1;
+                    int rj0 = Math.max(j0, tj), rj1 = Math.min(j0 + columns, tj + tileSize) - 1;
+                    long first = cellOffsets[ri0 * x + rj0];
+                    long last = cellOffsets[ri1 * x + rj1];
+                    ByteBuffer bb = ByteBuffer.allocate((int) (last - first) + blockLength * 2).order(ORDER);
+                    readFully(seriesChannel, bb, block * blockBytes + first);
+                    for (int i = ri0; i <= ri1; i++) {
+                        for (int j = rj0; j <= rj1; j++) {
+                            int base = (int) (cellOffsets[i * x + j] - first);
+                            int[] series = result[(i - i0) * columns + (j - j0)];
+                            for (int k = 0; k < blockLength; k++) {
+                                int n = block * blockLength + k;
+                                if (n >= n0 && n < n0 + count) {
+                                    series[n - n0] = RadolanData.toInt(bb.getShort(base + 2 * k));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        for (int n = Math.max(n0, completeFrames); n < n0 + count; n++) {
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < columns; j++) {
+                    result[i * columns + j][n - n0] = staging.getValue(n - completeFrames, i0 + i, j0 + j);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+        long start = position - bb.position();
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, start + bb.position()) < 0) {
+                throw new IOException("Unexpected end of index file.");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bb, long position) throws IOException {
+        long start = position - bb.position();
+        while (bb.hasRemaining()) {
+            channel.write(bb, start + bb.position());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            staging.close();
+        } finally {
+            try {
+                timesChannel.close();
+            } finally {
+                seriesChannel.close();
+            }
+        }
+    }
+}
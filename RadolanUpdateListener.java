@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+/**
+ * Receives new products from a {@link RadolanUpdateService}. Methods are
+ * called from the service thread, one file after the other in order of the
+ * file names.
+ *
+ * @author saemann
+ */
+public interface RadolanUpdateListener {
+
+    /**
+     * A new file has been published and decoded. Called once per file.
+     *
+     * @param entry listing entry of the file
+     * @param data shared read-only frame of the {@link RadolanCache}
+     */
+    public void newData(DWD_DirectoryPoller.Entry entry, RadolanData data);
+
+    /**
+     * A new file could not be downloaded or decoded, also after
+     * {@link RadolanUpdateService#maxAttempts} attempts.
+     *
+     * @param entry listing entry of the file
+     * @param exception cause
+     */
+    public void failed(DWD_DirectoryPoller.Entry entry, Exception exception);
+}
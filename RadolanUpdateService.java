@@ -0,0 +1,276 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Polls the RQ listing for all consumers and pushes every new file, decoded,
+ * to the registered listeners exactly once. The service has its own
+ * {@link DWD_DirectoryPoller} and keeps the file names of its
+ * {@link DWD_RQ_Reader} ({@link DWD_RQ_Reader#getFileNames()}) up to date,
+ * {@link DWD_RQ_Reader#checkForNewData()} is not needed while it runs.
+ * <br>
+ * Polls are aligned to the publication cadence: the next poll is scheduled
+ * one cadence after the upload time of the newest file. If the next file is
+ * late (or the server fails), polls are repeated with jittered, exponentially
+ * growing delays.
+ * <br>
+ * Files are delivered in the order of the listing: if a file has to be
+ * retried, newer files are held back until it is delivered or given up.
+ *
+ * @author saemann
+ */
+public class RadolanUpdateService {
+
+    /**
+     * Interval of new RQ products [ms].
+     */
+    public static long cadenceMS = 15 * 60 * 1000;
+    /**
+     * Margin after the expected upload time before polling [ms].
+     */
+    public static long marginMS = 10 * 1000;
+    /**
+     * First delay if a file is late [ms].
+     */
+    public static long minBackoffMS = 15 * 1000;
+    /**
+     * Upper limit of the delay if a file is late [ms].
+     */
+    public static long maxBackoffMS = 2 * 60 * 1000;
+    /**
+     * Number of polls a file is tried to be downloaded before it is reported
+     * as failed.
+     */
+    public static int maxAttempts = 3;
+
+    public final DWD_RQ_Reader reader;
+
+    /**
+     * Poller of the service, independent of the reader's poller.
+     */
+    private final DWD_DirectoryPoller poller;
+
+    private final CopyOnWriteArrayList<RadolanUpdateListener> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Files found in the listing but not yet delivered, with their number of
+     * attempts.
+     */
+    private final List<DWD_DirectoryPoller.Entry> pending = new ArrayList<>();
+    private final List<Integer> attempts = new ArrayList<>();
+
+    private String lastPublished;
+    private long lastUpload = -1;
+    private int lateCount = 0;
+    private boolean running = false;
+
+    public RadolanUpdateService(DWD_RQ_Reader reader) {
+        this.reader = reader;
+        this.poller = new DWD_DirectoryPoller(DWD_RQ_Reader.urlRootRQ);
+    }
+
+    public void addListener(RadolanUpdateListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(RadolanUpdateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts polling immediately. Files already in the listing are only
+     * delivered if they are newer than the given name.
+     *
+     * @param lastKnownName newest file the consumers already have, null to
+     * receive only files published after the first poll.
+     */
+    public synchronized void start(String lastKnownName) {
+        if (running) {
+            return;
+        }
+        running = true;
+        lastPublished = lastKnownName;
+        lastUpload = -1;
+        lateCount = 0;
+        pending.clear();
+        attempts.clear();
+        if (lastKnownName != null) {
+            poller.setLastName(lastKnownName);
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Radolan-update");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler = executor;
+        executor.execute(() -> poll(executor, lastKnownName == null));
+    }
+
+    /**
+     * Stops polling. Running deliveries are finished. The service can be
+     * started again afterwards.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * One poll on the scheduler thread. Schedules the next poll.
+     *
+     * @param executor scheduler this poll runs on, the chain ends if the
+     * service was stopped (and restarted) in the meantime.
+     * @param skip mark all listed files as known without delivering them.
+     */
+    private void poll(ScheduledExecutorService executor, boolean skip) {
+        if (!isCurrent(executor)) {
+            return;
+        }
+        boolean found = false;
+        try {
+            List<DWD_DirectoryPoller.Entry> entries = poller.poll();
+            for (DWD_DirectoryPoller.Entry entry : entries) {
+                lastUpload = Math.max(lastUpload, entry.lastModified);
+                if (skip) {
+                    lastPublished = entry.name;
+                } else if (lastPublished == null || entry.name.compareTo(lastPublished) > 0) {
+                    pending.add(entry);
+                    attempts.add(0);
+                    found = true;
+                }
+            }
+            if (skip) {
+                found = !entries.isEmpty();
+                if (found) {
+                    reader.setNewest(entries.get(entries.size() - 1));
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception ex) {
+            Logger.getLogger(RadolanUpdateService.class.getName()).log(Level.WARNING, "Polling " + poller.url + " failed.", ex);
+        }
+        try {
+            deliverPending();
+        } catch (RuntimeException ex) {
+            Logger.getLogger(RadolanUpdateService.class.getName()).log(Level.SEVERE, "Delivery failed.", ex);
+        } finally {
+            scheduleNext(executor, found);
+        }
+    }
+
+    private synchronized boolean isCurrent(ScheduledExecutorService executor) {
+        return running && scheduler == executor;
+    }
+
+    /**
+     * Downloads all pending files concurrently and delivers them in order.
+     * The first file that has to be retried holds back all newer files.
+     */
+    private void deliverPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<CompletableFuture<RadolanData>> results = new ArrayList<>(pending.size());
+        for (DWD_DirectoryPoller.Entry entry : pending) {
+            results.add(reader.fetchData(entry.name));
+        }
+        int delivered = 0;
+        for (int n = 0; n < pending.size(); n++) {
+            DWD_DirectoryPoller.Entry entry = pending.get(n);
+            try {
+                RadolanData data = results.get(n).join();
+                reader.setNewest(entry);
+                for (RadolanUpdateListener listener : listeners) {
+                    try {
+                        listener.newData(entry, data);
+                    } catch (RuntimeException ex) {
+                        Logger.getLogger(RadolanUpdateService.class.getName()).log(Level.SEVERE, "Listener failed for " + entry.name, ex);
+                    }
+                }
+            } catch (CompletionException ex) {
+                Exception cause = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                int attempt = attempts.get(n) + 1;
+                if (attempt < maxAttempts) {
+                    //Keep this and all newer files for the next poll
+                    attempts.set(n, attempt);
+                    break;
+                }
+                for (RadolanUpdateListener listener : listeners) {
+                    try {
+                        listener.failed(entry, cause);
+                    } catch (RuntimeException lex) {
+                        Logger.getLogger(RadolanUpdateService.class.getName()).log(Level.SEVERE, "Listener failed for " + entry.name, lex);
+                    }
+                }
+            }
+            lastPublished = entry.name;
+            delivered++;
+        }
+        pending.subList(0, delivered).clear();
+        attempts.subList(0, delivered).clear();
+    }
+
+    private synchronized void scheduleNext(ScheduledExecutorService executor, boolean found) {
+        if (!running || scheduler != executor) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long delay;
+        if (found) {
+            lateCount = 0;
+        }
+        long expected = lastUpload + cadenceMS + marginMS;
+        if (lastUpload >= 0 && expected > now && pending.isEmpty()) {
+            delay = expected - now;
+        } else {
+            //Late or failed: exponential backoff with jitter
+            long backoff = Math.min(maxBackoffMS, minBackoffMS << Math.min(lateCount, 16));
+            delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            lateCount++;
+        }
+        executor.schedule(() -> poll(executor, false), delay, TimeUnit.MILLISECONDS);
+    }
+}
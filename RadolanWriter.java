@@ -0,0 +1,292 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes frames in the binary Radolan format as read by
+ * {@link RadolanReader}: text header (BY, VS, PR, INT, GP, VV, MF, MS), ETX,
+ * {@link RadolanHeader#BODY_OFFSET}-1 filler bytes and 2-byte big endian
+ * words with the value in the lower 12 bits, 0x4000 for negative values and
+ * 0x2000 (with value 2500) for missing values. 1-byte products (RX, WX)
+ * are written as RVP6 bytes directly after ETX with 250 for missing values.
+ * Decoding a written frame results in exactly the same values.
+ *
+ * @author saemann
+ */
+public class RadolanWriter {
+
+    /**
+     * Radar sites listed in the MS entry if no other text is given.
+     */
+    public static String defaultRadarText = "<asb,boo,ros,hnr,umd,pro,ess,fld,drs,neu,nhb,oft,eis,tur,isn,fbg,mem>";
+
+    /**
+     * Word of missing values: error flag with the value DWD uses (2500).
+     */
+    static final int WORD_NAN = 0x2000 | 2500;
+
+    /**
+     * Largest absolute value of a 12 bit word.
+     */
+    public static final int MAX_VALUE = 0x0FFF;
+
+    /**
+     * Creates the header including ETX and filler bytes.
+     *
+     * @param data frame
+     * @param msText text of the MS entry, null for the crop origin of sub
+     * grids or the {@link #defaultRadarText}.
+     * @return
+     */
+    public static byte[] createHeader(RadolanData data, String msText) {
+        if (msText == null) {
+            //Sub grids keep their origin in the text
+            RadolanProjection projection = data.projection;
+            msText = projection != null && projection.parent != null ? projection.getCropText() : defaultRadarText;
+        }
+        if (msText.length() > 999) {
+            throw new IllegalArgumentException("MS text is longer than 999 characters.");
+        }
+        StringBuilder rest = new StringBuilder(64 + msText.length());
+        rest.append("VS 3");
+        rest.append("PR ").append(precision(!Double.isNaN(data.precision) ? data.precision : data.factor));
+        rest.append(String.format("INT%4d", interval(data.product)));
+        //rows x columns
+        rest.append(String.format("GP%4dx%4d", data.y, data.x));
+        if (data.leadTime >= 0) {
+            rest.append(String.format("VV %03d", data.leadTime));
+        }
+        rest.append("MF 00000008");
+        rest.append(String.format("MS%3d", msText.length())).append(msText);
+        String product = data.product != null && data.product.length() == 2 ? data.product : "RQ";
+        RadolanProductDecoder decoder = RadolanProducts.forProduct(product);
+        long total = 26L + rest.length() + decoder.bodyOffset() + (long) decoder.bytesPerValue() * data.x * data.y;
+        String header = String.format("%1$s%2$td%2$tH%2$tM10000%2$tm%2$tyBY%3$7d", product, data.productionTime, total) + rest;
+        byte[] bytes = new byte[header.length() + decoder.bodyOffset()];
+        System.arraycopy(header.getBytes(StandardCharsets.ISO_8859_1), 0, bytes, 0, header.length());
+        bytes[header.length()] = RadolanHeader.ETX;
+        return bytes;
+    }
+
+    /**
+     * Precision entry of a factor, e.g. "E-01" for 0.1.
+     */
+    static String precision(double factor) {
+        int exponent = (int) Math.round(Math.log10(factor));
+        return String.format("E%s%02d", exponent < 0 ? "-" : "+", Math.abs(exponent));
+    }
+
+    /**
+     * Accumulation interval of the products [minutes].
+     */
+    static int interval(String product) {
+        if (product == null) {
+            return 60;
+        }
+        switch (product) {
+            case "RY":
+            case "RX":
+            case "WX":
+            case "YW":
+            case "RV":
+                return 5;
+            case "SF":
+                return 1440;
+            default:
+                return 60;
+        }
+    }
+
+    /**
+     * Encodes n values into 2-byte big endian words.
+     *
+     * @param grid compact values
+     * @param offset first value
+     * @param n number of values
+     * @param target
+     * @param position first byte in target
+     * @throws IllegalArgumentException if a value does not fit into 12 bits.
+     */
+    static void encodeWords(short[] grid, int offset, int n, byte[] target, int position) {
+        for (int k = 0; k < n; k++) {
+            int v = grid[offset + k];
+            int word;
+            if (v == RadolanData.NAN) {
+                word = WORD_NAN;
+            } else if (v < 0) {
+                if (v < -MAX_VALUE) {
+                    throw new IllegalArgumentException("Value " + v + " at cell " + (offset + k) + " does not fit into 12 bits.");
+                }
+                word = 0x4000 | -v;
+            } else {
+                if (v > MAX_VALUE) {
+                    throw new IllegalArgumentException("Value " + v + " at cell " + (offset + k) + " does not fit into 12 bits.");
+                }
+                word = v;
+            }
+            target[position + 2 * k] = (byte) (word >> 8);
+            target[position + 2 * k + 1] = (byte) word;
+        }
+    }
+
+    /**
+     * Encodes n values into single RVP6 bytes.
+     *
+     * @param grid compact values
+     * @param offset first value
+     * @param n number of values
+     * @param target
+     * @param position first byte in target
+     * @throws IllegalArgumentException if a value is no RVP6 value.
+     */
+    static void encodeBytes(short[] grid, int offset, int n, byte[] target, int position) {
+        for (int k = 0; k < n; k++) {
+            int v = grid[offset + k];
+            if (v == RadolanData.NAN) {
+                v = RadolanProducts.RVP6_MISSING;
+            } else if (v < 0 || v >= RadolanProducts.RVP6_CLUTTER) {
+                throw new IllegalArgumentException("Value " + v + " at cell " + (offset + k) + " is no RVP6 value.");
+            }
+            target[position + k] = (byte) v;
+        }
+    }
+
+    /**
+     * Writes a frame to a channel. The channel is not closed.
+     *
+     * @param data frame
+     * @param channel target
+     * @param gzip compress the content
+     * @param msText text of the MS entry, null for the default.
+     * @throws IOException
+     */
+    public static void write(RadolanData data, WritableByteChannel channel, boolean gzip, String msText) throws IOException {
+        if (gzip) {
+            GZIPOutputStream out = new GZIPOutputStream(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    writeFully(channel, ByteBuffer.wrap(b, off, len));
+                }
+            }, 65536);
+            write(data, out, msText);
+            out.finish();
+        } else {
+            write(data, Channels.newOutputStream(channel), msText);
+        }
+    }
+
+    /**
+     * Writes header and body to an uncompressed stream.
+     */
+    private static void write(RadolanData data, OutputStream out, String msText) throws IOException {
+        out.write(createHeader(data, msText));
+        short[] grid = data.compactGrid();
+        int bytes = RadolanProducts.forProduct(data.product).bytesPerValue();
+        int rowsPerChunk = Math.max(1, 32768 / Math.max(1, data.x));
+        byte[] buffer = new byte[rowsPerChunk * data.x * bytes];
+        for (int i = 0; i < data.y; i += rowsPerChunk) {
+            int n = Math.min(rowsPerChunk, data.y - i) * data.x;
+            if (bytes == 1) {
+                encodeBytes(grid, i * data.x, n, buffer, 0);
+            } else {
+                encodeWords(grid, i * data.x, n, buffer, 0);
+            }
+            out.write(buffer, 0, bytes * n);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes a frame to a channel with the default MS text. The channel is
+     * not closed.
+     *
+     * @param data frame
+     * @param channel target
+     * @param gzip compress the content
+     * @throws IOException
+     */
+    public static void write(RadolanData data, WritableByteChannel channel, boolean gzip) throws IOException {
+        write(data, channel, gzip, null);
+    }
+
+    /**
+     * Encodes a frame into memory.
+     *
+     * @param data
+     * @param gzip
+     * @return
+     * @throws IOException
+     */
+    public static byte[] toBytes(RadolanData data, boolean gzip) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(gzip ? data.x * data.y / 2 : 2 * data.x * data.y + 512);
+        write(data, Channels.newChannel(bos), gzip);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Writes a frame to a file, gzip compressed if the name ends with ".gz".
+     * The content is written to a temporary file first, which is renamed when
+     * it is complete.
+     *
+     * @param data
+     * @param file
+     * @throws IOException
+     */
+    public static void writeFile(RadolanData data, File file) throws IOException {
+        File part = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".part");
+        try (FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(data, channel, file.getName().endsWith(".gz"));
+            channel.force(false);
+        } catch (IOException | RuntimeException ex) {
+            part.delete();
+            throw ex;
+        }
+        Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining()) {
+            channel.write(bb);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Copies all bytes read from a stream to a channel, e.g. to archive a
+ * download while it is decoded. The channel is not closed.
+ *
+ * @author saemann
+ */
+public class TeeInputStream extends FilterInputStream {
+
+    private final WritableByteChannel copy;
+
+    public TeeInputStream(InputStream in, WritableByteChannel copy) {
+        super(in);
+        this.copy = copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int bytes_read = in.read(b, off, len);
+        if (bytes_read > 0) {
+            write(b, off, bytes_read);
+        }
+        return bytes_read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        //Skipped bytes must be copied as well.
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int bytes_read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (bytes_read < 0) {
+                break;
+            }
+            skipped += bytes_read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Reads (and copies) the rest of the stream, e.g. after a decoder has
+     * stopped early.
+     *
+     * @throws IOException
+     */
+    public void drain() throws IOException {
+        byte[] buffer = new byte[65536];
+        int bytes_read;
+        do {
+            bytes_read = read(buffer, 0, buffer.length);
+        } while (bytes_read >= 0);
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+        while (bb.hasRemaining()) {
+            copy.write(bb);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.IOException;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the ingest cycle against a {@link DWD_LocalServer}: listing check,
+ * download of the actual, +60 and +120 minutes files and extraction of one
+ * value per file. A new production time is published before every cycle.
+ *
+ * @author saemann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class DWD_IngestBenchmark {
+
+    /**
+     * Delay before each response of the server [ms].
+     */
+    @Param({"20"})
+    public long latencyMS;
+
+    /**
+     * Transfer rate of the server [bytes/s], 0 for unlimited.
+     */
+    @Param({"0"})
+    public long bytesPerSecond;
+
+    private DWD_LocalServer server;
+    private String urlBefore;
+    private DWD_RQ_Reader reader;
+    private GregorianCalendar time;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new DWD_LocalServer(0);
+        server.latencyMS = latencyMS;
+        server.bytesPerSecond = bytesPerSecond;
+        urlBefore = DWD_RQ_Reader.urlRootRQ;
+        DWD_RQ_Reader.urlRootRQ = server.getUrl();
+        reader = DWD_RQ_Reader.DWD_RQ_Reader_Hannover_Ricklingen();
+        //Do not touch the disk
+        reader.fileStoreDirectoryDownloads = null;
+        time = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        time.setTimeInMillis((System.currentTimeMillis() / 300000) * 300000);
+    }
+
+    @Setup(Level.Invocation)
+    public void publish() throws IOException {
+        time.add(GregorianCalendar.MINUTE, 5);
+        server.publish(time, time.getTimeInMillis() + 4 * 60000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DWD_RQ_Reader.urlRootRQ = urlBefore;
+        server.close();
+    }
+
+    /**
+     * Listing check and download of the three new files.
+     *
+     * @return
+     */
+    @Benchmark
+    public double[][] cycle() {
+        reader.checkForNewData();
+        double[][] rain = reader.readRain();
+        if (rain[2][0] == 0) {
+            throw new IllegalStateException("Cycle incomplete.");
+        }
+        return rain;
+    }
+}
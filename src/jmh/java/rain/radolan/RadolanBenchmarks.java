@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the hot paths: header parsing, body decoding, reading raw and
+ * gzip files, projection and rendering. Frames of the 900x900 and 900x1100
+ * grids are generated into a temporary directory.
+ *
+ * @author saemann
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RadolanBenchmarks {
+
+    /**
+     * Grid size, columns x rows.
+     */
+    @Param({"900x900", "900x1100"})
+    public String grid;
+
+    private File directory, raw, gz;
+    private ByteBuffer content;
+    private RadolanData data;
+    private RadolanPanel panel;
+    private final double[] lat = new double[1000], lon = new double[1000];
+
+    @Setup
+    public void setup() throws IOException {
+        String[] size = grid.split("x");
+        int x = Integer.parseInt(size[0]), y = Integer.parseInt(size[1]);
+        directory = Files.createTempDirectory("radolan-bench").toFile();
+        File[] files = createFiles(directory, x, y);
+        raw = files[0];
+        gz = files[1];
+        content = RadolanReader.load(raw);
+        data = RadolanReader.readFile(raw);
+        panel = new RadolanPanel();
+        Random random = new Random(1);
+        for (int k = 0; k < lat.length; k++) {
+            lat[k] = 47.5 + random.nextDouble() * 7.5;
+            lon[k] = 5.5 + random.nextDouble() * 9.5;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        raw.delete();
+        gz.delete();
+        directory.delete();
+    }
+
+    /**
+     * Writes a synthetic RQ frame as raw and gzip file.
+     *
+     * @return {raw, gzip}
+     */
+    static File[] createFiles(File directory, int x, int y) throws IOException {
+        GregorianCalendar time = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        time.set(2019, 9, 17, 12, 0, 0);
+        RadolanData data = RadolanFixtures.createFrame(time, 60, x, y, 42);
+        File rawFile = new File(directory, "RQ" + x + "x" + y);
+        File gzFile = new File(directory, "RQ" + x + "x" + y + ".gz");
+        RadolanWriter.writeFile(data, rawFile);
+        RadolanWriter.writeFile(data, gzFile);
+        return new File[]{rawFile, gzFile};
+    }
+
+    @Benchmark
+    public int parseHeader() throws IOException {
+        return RadolanHeader.parse(content).positionBody;
+    }
+
+    @Benchmark
+    public RadolanData decode() throws IOException {
+        return RadolanReader.read(content);
+    }
+
+    @Benchmark
+    public RadolanData readRawData() throws IOException {
+        return RadolanReader.readRawData(raw);
+    }
+
+    @Benchmark
+    public RadolanData readFileRaw() throws IOException {
+        return RadolanReader.readFile(raw);
+    }
+
+    @Benchmark
+    public RadolanData readFileGzip() throws IOException {
+        return RadolanReader.readFile(gz);
+    }
+
+    @Benchmark
+    public RadolanExtract readCellsGzip() throws IOException {
+        return RadolanReader.readCells(gz, new int[]{611}, new int[]{503});
+    }
+
+    /**
+     * 1000 conversions of geographic coordinates to grid positions.
+     */
+    @Benchmark
+    public void latLonToPosition(Blackhole blackhole) {
+        for (int k = 0; k < lat.length; k++) {
+            blackhole.consume(data.getPositionIndicesForLatLon_DWD(lat[k], lon[k]));
+        }
+    }
+
+    @Benchmark
+    public BufferedImage createImage() {
+        return panel.createImage(data);
+    }
+
+    @Benchmark
+    public String createTextPicture() {
+        return data.createTextPicture(true);
+    }
+}
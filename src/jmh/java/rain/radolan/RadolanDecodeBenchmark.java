@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the bulk body decoder with the former per cell ByteBuffer loop on
+ * a 900x900 body.
+ *
+ * @author saemann
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RadolanDecodeBenchmark {
+
+    private final int x = 900, y = 900;
+    private byte[] body;
+    private ByteBuffer bb;
+    private short[] grid;
+
+    @Setup
+    public void setup() {
+        body = RadolanFixtures.createBody(x, y, 42);
+        bb = ByteBuffer.wrap(body);
+        grid = new short[x * y];
+    }
+
+    /**
+     * The decoding loop as it was used before the bulk decoder.
+     */
+    static int[][] decodeLegacy(byte[] body, int x, int y) {
+        ByteBuffer bb = ByteBuffer.wrap(body);
+        bb.order(ByteOrder.BIG_ENDIAN);
+        int[][] values = new int[y][x];
+        for (int i = 0; i < y; i++) {
+            for (int j = 0; j < x; j++) {
+                int complete = bb.getShort();
+                int v = complete & 0x0FFF;
+                if (v != 0) {
+                    if ((complete & 0x2000) != 0) {
+                        v = Integer.MIN_VALUE;
+                    }
+                    if ((complete & 0x4000) != 0) {
+                        v = -v;
+                    }
+                }
+                values[i][j] = v;
+            }
+        }
+        return values;
+    }
+
+    @Benchmark
+    public int[][] legacy() {
+        return decodeLegacy(body, x, y);
+    }
+
+    @Benchmark
+    public short[] bulk() {
+        RadolanReader.decodeBody(bb, 0, x, y, grid, 0);
+        return grid;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Decoding of RV tar archives with plain, gzip compressed and long named
+ * members by {@link DWD_RV_Reader}.
+ *
+ * @author saemann
+ */
+public class DWD_RV_ReaderTest {
+
+    private static final int X = 1100, Y = 1200;
+
+    @TempDir
+    File directory;
+
+    private static RadolanData frame(int x, int y, int leadTime) {
+        GregorianCalendar time = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        time.setTimeInMillis(1600000000000L);
+        short[] grid = new short[x * y];
+        for (int k = 0; k < grid.length; k++) {
+            grid[k] = (short) ((k + leadTime) % 300);
+        }
+        RadolanData data = RadolanReader.createData("RV", grid, x, y, leadTime, time);
+        data.factor = 0.01f;
+        return data;
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes one ustar member (header block and padded content).
+     */
+    private static void member(OutputStream tar, String name, byte type, byte[] content) throws IOException {
+        byte[] header = new byte[512];
+        byte[] n = name.getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(n, 0, header, 0, Math.min(100, n.length));
+        field(header, 100, 8, "0000644");
+        field(header, 108, 8, "0000000");
+        field(header, 116, 8, "0000000");
+        field(header, 124, 12, String.format("%011o", content.length));
+        field(header, 136, 12, "00000000000");
+        header[156] = type;
+        field(header, 257, 6, "ustar");
+        header[263] = '0';
+        header[264] = '0';
+        for (int p = 148; p < 156; p++) {
+            header[p] = ' ';
+        }
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        field(header, 148, 8, String.format("%06o", checksum));
+        tar.write(header);
+        tar.write(content);
+        tar.write(new byte[(512 - content.length % 512) % 512]);
+    }
+
+    private static void field(byte[] header, int offset, int length, String value) {
+        byte[] v = value.getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(v, 0, header, offset, Math.min(length - 1, v.length));
+    }
+
+    /**
+     * Archive with lead times 0 (plain), 5 (gzip member) and 15 (GNU long
+     * name). Lead time 10 is missing.
+     */
+    private static byte[] archive() throws IOException {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        member(tar, "DE1200_RV2009131240_000", (byte) '0', RadolanWriter.toBytes(frame(X, Y, 0), false));
+        member(tar, "DE1200_RV2009131240_005.gz", (byte) '0', gzip(RadolanWriter.toBytes(frame(X, Y, 5), false)));
+        String longName = "composite/rv/" + "x".repeat(100) + "/DE1200_RV2009131240_015";
+        member(tar, "././@LongLink", (byte) 'L', (longName + "\0").getBytes(StandardCharsets.ISO_8859_1));
+        member(tar, longName.substring(0, 100), (byte) '0', RadolanWriter.toBytes(frame(X, Y, 15), false));
+        tar.write(new byte[1024]);
+        return tar.toByteArray();
+    }
+
+    /**
+     * Member with a header as published by the DWD: GP is rows x columns.
+     */
+    private static byte[] dwdMember(int leadTime) throws IOException {
+        String header = "RV141240100000920BY2640161VS 5SW   2.28.4PR E-02INT   5GP1200x1100VV "
+                + String.format("%03d", leadTime)
+                + "MF 00000002MS  69<asb,boo,drs,eis,ess,fbg,fld,hnr,isn,mem,neu,nhb,oft,pro,ros,tur,umd>";
+        byte[] written = RadolanWriter.toBytes(frame(X, Y, leadTime), false);
+        byte[] bytes = new byte[header.length() + RadolanHeader.BODY_OFFSET + 2 * X * Y];
+        System.arraycopy(header.getBytes(StandardCharsets.ISO_8859_1), 0, bytes, 0, header.length());
+        bytes[header.length()] = RadolanHeader.ETX;
+        System.arraycopy(written, written.length - 2 * X * Y, bytes, bytes.length - 2 * X * Y, 2 * X * Y);
+        return bytes;
+    }
+
+    @Test
+    public void parsesDwdHeader() throws IOException {
+        RadolanHeader header = RadolanHeader.parse(ByteBuffer.wrap(dwdMember(5)));
+        assertEquals("RV", header.product);
+        assertEquals(X, header.x);
+        assertEquals(Y, header.y);
+        assertEquals(5, header.leadTime);
+        assertEquals(0.01, header.precision, 1E-9);
+        assertEquals(2640161, header.contentLength);
+        assertNotNull(RadolanProjection.forGrid(header.x, header.y));
+    }
+
+    @Test
+    public void readsDwdMembers() throws IOException {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        for (int lead : new int[]{0, 5}) {
+            member(tar, String.format("DE1200_RV2009141240_%03d", lead), (byte) '0', dwdMember(lead));
+        }
+        tar.write(new byte[1024]);
+        RadolanGridStack cube = DWD_RV_Reader.read(new ByteArrayInputStream(tar.toByteArray()));
+        assertEquals(X, cube.getX());
+        assertEquals(Y, cube.getY());
+        assertTrue(cube.isSet(1));
+        assertEquals(frame(X, Y, 5).getValueIJ(1100, 40), cube.getValue(1, 1100, 40));
+        assertEquals(frame(X, Y, 0).getValueIJ(3, 1099), cube.getValue(0, 3, 1099));
+    }
+
+    @Test
+    public void readsAllMembers() throws IOException {
+        RadolanGridStack cube = DWD_RV_Reader.read(new ByteArrayInputStream(archive()));
+        assertEquals(X, cube.getX());
+        assertEquals(Y, cube.getY());
+        assertEquals(DWD_RV_Reader.LEAD_TIMES, cube.getCapacity());
+        assertEquals(DWD_RV_Reader.PRECISION, cube.getFactor(), 1E-6);
+        for (int lead : new int[]{0, 5, 15}) {
+            int k = lead / DWD_RV_Reader.LEAD_TIME_STEP;
+            assertTrue(cube.isSet(k), "lead time " + lead);
+            assertEquals(lead, cube.getLeadTime(k));
+            assertEquals("RV", cube.getProduct(k));
+            assertEquals(frame(X, Y, lead).getValueIJ(700, 300), cube.getValue(k, 700, 300));
+        }
+        RadolanData data = cube.getData(3);
+        assertEquals(0.01f, data.factor, 1E-6f);
+    }
+
+    @Test
+    public void missingLeadTimesAreNaN() throws IOException {
+        RadolanGridStack cube = DWD_RV_Reader.read(new ByteArrayInputStream(archive()));
+        for (int k : new int[]{2, 4, DWD_RV_Reader.LEAD_TIMES - 1}) {
+            assertFalse(cube.isSet(k));
+            assertEquals(Integer.MIN_VALUE, cube.getValue(k, 0, 0));
+            assertEquals(Integer.MIN_VALUE, cube.getValue(k, Y - 1, X - 1));
+        }
+    }
+
+    @Test
+    public void readsGzipArchiveFile() throws IOException {
+        File file = new File(directory, "DE1200_RV2009131240.tar.gz");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(gzip(archive()));
+        }
+        RadolanGridStack cube = DWD_RV_Reader.readFile(file);
+        assertTrue(cube.isSet(1));
+        assertEquals(frame(X, Y, 5).getValueIJ(10, 20), cube.getValue(1, 10, 20));
+    }
+
+    @Test
+    public void unknownGridIsRejected() throws IOException {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        member(tar, "RV_000", (byte) '0', RadolanWriter.toBytes(frame(100, 100, 0), false));
+        tar.write(new byte[1024]);
+        assertThrows(IOException.class, () -> DWD_RV_Reader.read(new ByteArrayInputStream(tar.toByteArray())));
+    }
+
+    @Test
+    public void readsBzip2ArchiveFile() throws IOException {
+        //Layout of the DWD archives: plain members, one per lead time
+        File file = new File(directory, "DE1200_RV2009141240.tar.bz2");
+        try (OutputStream out = new BZip2CompressorOutputStream(new FileOutputStream(file))) {
+            for (int lead : new int[]{0, 5, 10}) {
+                member(out, String.format("DE1200_RV2009141240_%03d", lead), (byte) '0', dwdMember(lead));
+            }
+            out.write(new byte[1024]);
+        }
+        RadolanGridStack cube = DWD_RV_Reader.readFile(file);
+        assertEquals(X, cube.getX());
+        assertEquals(Y, cube.getY());
+        for (int k = 0; k < 3; k++) {
+            assertTrue(cube.isSet(k));
+            assertEquals(frame(X, Y, k * 5).getValueIJ(600, 500), cube.getValue(k, 600, 500));
+        }
+        assertFalse(cube.isSet(3));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Reopening and recovery of a {@link RadolanArchive}.
+ *
+ * @author saemann
+ */
+public class RadolanArchiveTest {
+
+    @TempDir
+    File directory;
+
+    private static RadolanData frame(int n) {
+        GregorianCalendar time = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        time.setTimeInMillis(1571313600000L + n * 300000L);
+        return RadolanFixtures.createFrame(time, 0, 900, 900, n);
+    }
+
+    private File createArchive(int frames) throws IOException {
+        File file = new File(directory, "archive.dat");
+        try (RadolanArchive archive = RadolanArchive.open(file, 3)) {
+            for (int n = 0; n < frames; n++) {
+                archive.append(frame(n));
+            }
+        }
+        return file;
+    }
+
+    private static void truncate(File file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    @Test
+    public void reopenReadsAllFrames() throws IOException {
+        File file = createArchive(7);
+        try (RadolanArchive archive = RadolanArchive.open(file)) {
+            assertEquals(7, archive.size());
+            assertEquals(RadolanArchive.DEFAULT_KEY_FRAME_INTERVAL, archive.getKeyFrameInterval());
+            for (int n = 0; n < 7; n++) {
+                RadolanData expected = frame(n);
+                RadolanData read = archive.read(n);
+                assertEquals(expected.productionTime.getTimeInMillis(), read.productionTime.getTimeInMillis());
+                assertArrayEquals(expected.getGrid(), read.getGrid(), "frame " + n);
+            }
+            archive.append(frame(7));
+            assertArrayEquals(frame(7).getGrid(), archive.read(7).getGrid());
+        }
+    }
+
+    @Test
+    public void missingIndexKeepsData() throws IOException {
+        File file = createArchive(4);
+        long length = file.length();
+        File index = new File(file.getPath() + ".idx");
+        index.delete();
+        assertThrows(IOException.class, () -> RadolanArchive.open(file));
+        assertEquals(length, file.length());
+        assertFalse(index.exists());
+    }
+
+    @Test
+    public void shortIndexKeepsData() throws IOException {
+        File file = createArchive(4);
+        long length = file.length();
+        truncate(new File(file.getPath() + ".idx"), 10);
+        assertThrows(IOException.class, () -> RadolanArchive.open(file));
+        assertEquals(length, file.length());
+    }
+
+    @Test
+    public void incompleteFrameIsDropped() throws IOException {
+        File file = createArchive(5);
+        truncate(file, file.length() - 1);
+        try (RadolanArchive archive = RadolanArchive.open(file)) {
+            assertEquals(4, archive.size());
+            archive.append(frame(4));
+            archive.append(frame(5));
+        }
+        try (RadolanArchive archive = RadolanArchive.open(file)) {
+            assertEquals(6, archive.size());
+            for (int n = 0; n < 6; n++) {
+                assertArrayEquals(frame(n).getGrid(), archive.read(n).getGrid(), "frame " + n);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.File;
+import java.io.IOException;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Shared read-only frames of the {@link RadolanCache}.
+ *
+ * @author saemann
+ */
+public class RadolanCacheTest {
+
+    @TempDir
+    File directory;
+
+    @AfterEach
+    public void clear() {
+        RadolanCache.clear();
+    }
+
+    @Test
+    public void hitsShareTheFrame() throws IOException {
+        File file = new File(directory, "RQ1910171200_060");
+        RadolanWriter.writeFile(RadolanReaderTest.frame(3), file);
+        RadolanData first = RadolanCache.readFile(file);
+        RadolanData second = RadolanCache.readFile(file);
+        assertSame(first, second);
+        assertTrue(first.isReadOnly());
+        assertEquals(first.getValueIJ(450, 450), RadolanReader.readFile(file).getValueIJ(450, 450));
+    }
+
+    @Test
+    public void valuesOfSharedFramesAreNotHandedOut() {
+        RadolanCache.put("frame", RadolanReaderTest.frame(5));
+        RadolanData shared = RadolanCache.get("frame");
+        short[] grid = shared.getGrid();
+        int value = shared.getValueIJ(0, 0);
+        grid[0] = (short) (value + 1);
+        assertEquals(value, shared.getValueIJ(0, 0));
+        assertTrue(shared.getGridBuffer().isReadOnly());
+
+        RadolanData copy = shared.copy();
+        assertFalse(copy.isReadOnly());
+        assertArrayEquals(shared.getGrid(), copy.getGrid());
+        copy.getGrid()[0] = (short) (value + 1);
+        assertEquals(value + 1, copy.getValueIJ(0, 0));
+        assertEquals(value, shared.getValueIJ(0, 0));
+    }
+}
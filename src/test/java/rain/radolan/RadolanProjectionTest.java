@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Corners of the registered grids against the corner coordinates tabulated
+ * by the DWD.
+ *
+ * @author saemann
+ */
+public class RadolanProjectionTest {
+
+    private static final double TOLERANCE = 0.001;
+
+    @TempDir
+    File directory;
+
+    /**
+     * DWD corners (lat,lon) lower left, upper left, lower right, upper right.
+     */
+    private static final double[][] CORNERS_900x900 = {
+        {46.9526, 3.5889}, {54.5877, 2.0715}, {47.0705, 14.6209}, {54.7405, 15.7208}};
+    private static final double[][] CORNERS_900x1100 = {
+        {46.1929, 4.6759}, {55.5482, 3.0889}, {46.1827, 15.4801}, {55.5342, 17.1128}};
+
+    /**
+     * Compares the outer corners of the cells (i0,j0) to (i1,j1).
+     */
+    private static void assertCorners(double[][] expected, RadolanProjection projection, int i0, int j0, int i1, int j1) {
+        double[][] indices = {{i0, j0}, {i1, j0}, {i0, j1}, {i1, j1}};
+        for (int c = 0; c < 4; c++) {
+            double[] latlon = projection.getLatLonForDataIndex(indices[c][0], indices[c][1], new double[2]);
+            assertEquals(expected[c][0], latlon[0], TOLERANCE, "lat of corner " + c);
+            assertEquals(expected[c][1], latlon[1], TOLERANCE, "lon of corner " + c);
+        }
+    }
+
+    @Test
+    public void nationalCompositeCorners() {
+        RadolanProjection projection = RadolanProjection.forGrid(900, 900);
+        assertNotNull(projection);
+        assertCorners(CORNERS_900x900, projection, 0, 0, 900, 900);
+    }
+
+    @Test
+    public void extendedCompositeCorners() {
+        //GP1100x 900: 900 columns, 1100 rows
+        RadolanProjection projection = RadolanProjection.forGrid(900, 1100);
+        assertNotNull(projection);
+        assertCorners(CORNERS_900x1100, projection, 0, 0, 1100, 900);
+    }
+
+    @Test
+    public void twoKmCompositeIsCenteredOnNationalComposite() {
+        //The 900 km of the national composite are the cells 5 to 454
+        RadolanProjection projection = RadolanProjection.forGrid(460, 460);
+        assertNotNull(projection);
+        assertCorners(CORNERS_900x900, projection, 5, 5, 455, 455);
+    }
+
+    @Test
+    public void cellGridFileOfAnotherGridIsReplaced() throws IOException {
+        File stale = new File(directory, "stale.bin"), file = new File(directory, "cells.bin");
+        RadolanProjection first = new RadolanProjection(20, 10, -200, -4500, 1);
+        RadolanProjection second = new RadolanProjection(20, 10, -100, -4400, 1);
+        FloatBuffer[] grids = first.mapCellGrids(stale);
+        assertEquals(first.getCellLatitudes()[77], grids[0].get(77), 0);
+        //Same size, other origin. Copied, the stale file is still mapped
+        Files.copy(stale.toPath(), file.toPath());
+        grids = second.mapCellGrids(file);
+        assertEquals(second.getCellLatitudes()[77], grids[0].get(77), 0);
+        assertEquals(second.getCellLongitudes()[77], grids[1].get(77), 0);
+        assertEquals(second.getCellAreas()[77], grids[2].get(77), 0);
+        grids = second.mapCellGrids(file);
+        assertEquals(second.getCellLatitudes()[199], grids[0].get(199), 0);
+    }
+}
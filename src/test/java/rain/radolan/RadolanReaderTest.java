@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Round trips of {@link RadolanWriter} and {@link RadolanReader} with raw and
+ * gzip files, and partial reads of cells and regions.
+ *
+ * @author saemann
+ */
+public class RadolanReaderTest {
+
+    @TempDir
+    File directory;
+
+    static RadolanData frame(long seed) {
+        GregorianCalendar time = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        time.setTimeInMillis(1571313600000L);
+        return RadolanFixtures.createFrame(time, 60, 900, 900, seed);
+    }
+
+    private File write(RadolanData data, String name) throws IOException {
+        File file = new File(directory, name);
+        RadolanWriter.writeFile(data, file);
+        return file;
+    }
+
+    @Test
+    public void rawRoundTrip() throws IOException {
+        assertRoundTrip(frame(1), write(frame(1), "RQ1910171200_060"));
+    }
+
+    @Test
+    public void gzipRoundTrip() throws IOException {
+        assertRoundTrip(frame(1), write(frame(1), "RQ1910171200_060.gz"));
+    }
+
+    private static void assertRoundTrip(RadolanData expected, File file) throws IOException {
+        RadolanData compact = RadolanReader.readFile(file, true);
+        assertEquals(expected.product, compact.product);
+        assertEquals(expected.x, compact.x);
+        assertEquals(expected.y, compact.y);
+        assertEquals(expected.leadTime, compact.leadTime);
+        assertEquals(expected.productionTime.getTimeInMillis(), compact.productionTime.getTimeInMillis());
+        assertEquals(0.1f, compact.factor, 1E-6f);
+        assertArrayEquals(expected.getGrid(), compact.getGrid());
+
+        RadolanData values = RadolanReader.readFile(file);
+        assertNotNull(values.values);
+        assertArrayEquals(expected.toIntArray(), values.values);
+    }
+
+    @Test
+    public void readCellsMatchesFrame() throws IOException {
+        RadolanData data = frame(2);
+        int[] i = {0, 611, 899, 450, 611};
+        int[] j = {0, 503, 899, 10, 504};
+        for (File file : new File[]{write(data, "RQ"), write(data, "RQ.gz")}) {
+            RadolanExtract extract = RadolanReader.readCells(file, i, j);
+            assertEquals(900, extract.header.x);
+            for (int n = 0; n < i.length; n++) {
+                assertEquals(data.getValueIJ(i[n], j[n]), extract.getValue(n), file.getName() + " cell " + n);
+            }
+        }
+    }
+
+    @Test
+    public void readCellsOfFrameKeepsPrecision() throws IOException {
+        RadolanData data = frame(4);
+        data.factor = 0.01f;
+        File file = write(data, "RQ");
+        RadolanData read = RadolanReader.readFile(file);
+        assertEquals(0.01, read.precision, 0);
+        int[] i = {0, 611, 899};
+        int[] j = {0, 503, 899};
+        RadolanExtract fromFile = RadolanReader.readCells(file, i, j);
+        RadolanExtract fromFrame = RadolanReader.readCells(read, i, j);
+        for (int n = 0; n < i.length; n++) {
+            assertEquals(fromFile.getScaledValue(n), fromFrame.getScaledValue(n), 0, "cell " + n);
+        }
+    }
+
+    @Test
+    public void readCellsOfFrameScalesRVP6() throws IOException {
+        short[] grid = new short[900 * 1100];
+        grid[5] = 100;
+        RadolanData data = RadolanReader.createData("WX", grid, 900, 1100, 0, frame(1).productionTime);
+        data.factor = 0.5f;
+        data.offset = -32.5f;
+        RadolanExtract extract = RadolanReader.readCells(data, new int[]{0}, new int[]{5});
+        assertEquals(17.5, extract.getScaledValue(0), 0);
+    }
+
+    @Test
+    public void readCellsOutsideGridFails() throws IOException {
+        File file = write(frame(3), "RQ");
+        assertThrows(IOException.class, () -> RadolanReader.readCells(file, new int[]{900}, new int[]{0}));
+    }
+
+    @Test
+    public void readRegionMatchesCrop() throws IOException {
+        RadolanData data = frame(4);
+        RadolanData crop = data.crop(100, 200, 50, 60);
+        for (File file : new File[]{write(data, "RQ"), write(data, "RQ.gz")}) {
+            RadolanData region = RadolanReader.readRegion(file, 100, 200, 50, 60);
+            assertEquals(60, region.x);
+            assertEquals(50, region.y);
+            assertArrayEquals(crop.getGrid(), region.getGrid(), file.getName());
+            assertArrayEquals(crop.getLatLonForDataIndex(0, 0), region.getLatLonForDataIndex(0, 0), 1E-9);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Reopening and recovery of a {@link RadolanSeriesIndex}.
+ *
+ * @author saemann
+ */
+public class RadolanSeriesIndexTest {
+
+    private static final int X = 30, Y = 20, TILE = 8, BLOCK = 4;
+
+    @TempDir
+    File directory;
+
+    private static RadolanData frame(int n) {
+        GregorianCalendar time = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        time.setTimeInMillis(1571313600000L + n * 300000L);
+        short[] grid = new short[X * Y];
+        for (int k = 0; k < grid.length; k++) {
+            grid[k] = (short) (n * 10 + k % 7);
+        }
+        return RadolanReader.createData("RQ", grid, X, Y, 0, time);
+    }
+
+    /**
+     * Series of one cell of the frames 0 to count-1.
+     */
+    private static int[] expected(int i, int j, int count) {
+        int[] series = new int[count];
+        for (int n = 0; n < count; n++) {
+            series[n] = frame(n).getValueIJ(i, j);
+        }
+        return series;
+    }
+
+    private void append(int from, int to) throws IOException {
+        try (RadolanSeriesIndex index = RadolanSeriesIndex.open(directory)) {
+            for (int n = from; n < to; n++) {
+                index.append(frame(n));
+            }
+        }
+    }
+
+    @Test
+    public void reopenReadsStagedAndTransposedFrames() throws IOException {
+        RadolanSeriesIndex.create(directory, X, Y, TILE, BLOCK).close();
+        append(0, 6);
+        try (RadolanSeriesIndex index = RadolanSeriesIndex.open(directory)) {
+            assertEquals(6, index.size());
+            assertArrayEquals(expected(3, 5, 6), index.readSeries(3, 5, 0, 6, null));
+        }
+        append(6, 9);
+        try (RadolanSeriesIndex index = RadolanSeriesIndex.open(directory)) {
+            assertEquals(9, index.size());
+            assertArrayEquals(expected(19, 29, 9), index.readSeries(19, 29, 0, 9, null));
+        }
+    }
+
+    @Test
+    public void olderFileIsRejectedBeforeDecoding() throws IOException {
+        RadolanSeriesIndex.create(directory, X, Y, TILE, BLOCK).close();
+        append(0, 3);
+        File older = new File(directory, "RQ_older"), next = new File(directory, "RQ_next");
+        RadolanWriter.writeFile(frame(1), older);
+        RadolanWriter.writeFile(frame(3), next);
+        try (RadolanSeriesIndex index = RadolanSeriesIndex.open(directory)) {
+            assertThrows(IOException.class, () -> index.append(older));
+            assertEquals(3, index.size());
+            index.append(next);
+        }
+        try (RadolanSeriesIndex index = RadolanSeriesIndex.open(directory)) {
+            assertEquals(4, index.size());
+            assertArrayEquals(expected(7, 11, 4), index.readSeries(7, 11, 0, 4, null));
+        }
+    }
+
+    @Test
+    public void interruptedBlockIsTransposedAgain() throws IOException {
+        RadolanSeriesIndex.create(directory, X, Y, TILE, BLOCK).close();
+        append(0, 8);
+        //Lose the second block as if the process stopped while writing it
+        try (FileChannel channel = FileChannel.open(new File(directory, "series.dat").toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate((long) X * Y * BLOCK * 2);
+        }
+        try (RadolanSeriesIndex index = RadolanSeriesIndex.open(directory)) {
+            assertEquals(8, index.size());
+            assertArrayEquals(expected(3, 5, 8), index.readSeries(3, 5, 0, 8, null));
+            index.append(frame(8));
+            index.append(frame(9));
+            assertArrayEquals(expected(3, 5, 10), index.readSeries(3, 5, 0, 10, null));
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand-in for the RQ directory of opendata.dwd.de. Serves an nginx
+ * like listing (with ETag / Last-Modified) and synthetic gzip RQ files
+ * (with range requests). Response latency and transfer rate are
+ * configurable to load test the download, poll and decode path offline.
+ *
+ * @author saemann
+ */
+public class DWD_LocalServer implements Closeable {
+
+    public static final String PATH = "/weather/radar/radvor/rq/";
+
+    /**
+     * Delay before each response [ms].
+     */
+    public volatile long latencyMS = 0;
+    /**
+     * Transfer rate of file bodies [bytes/s], 0 for unlimited.
+     */
+    public volatile long bytesPerSecond = 0;
+    /**
+     * Grid size of generated files.
+     */
+    public volatile int x = 900, y = 900;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Published files by name: gzip content and upload time.
+     */
+    private final TreeMap<String, byte[]> files = new TreeMap<>();
+    private final TreeMap<String, Long> uploads = new TreeMap<>();
+    private long version = 0, lastChange = 0;
+
+    /**
+     *
+     * @param port 0 for any free port
+     * @throws IOException
+     */
+    public DWD_LocalServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "DWD-local-server");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    /**
+     *
+     * @return URL of the RQ directory, to be used as
+     * {@link DWD_RQ_Reader#urlRootRQ}.
+     */
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + PATH;
+    }
+
+    /**
+     * Generates and publishes the actual, +60 and +120 minutes files of one
+     * production time.
+     *
+     * @param productionTime UTC
+     * @param upload time of the upload shown in the listing (UTC ms)
+     * @return name of the actual file
+     * @throws IOException
+     */
+    public String publish(GregorianCalendar productionTime, long upload) throws IOException {
+        String stamp = String.format("%1$ty%1$tm%1$td%1$tH%1$tM", productionTime);
+        String first = null;
+        for (int lead : new int[]{0, 60, 120}) {
+            String name = "RQ" + stamp + String.format("_%03d.gz", lead);
+            byte[] gz = RadolanWriter.toBytes(RadolanFixtures.createFrame(productionTime, lead, x, y, productionTime.getTimeInMillis() + lead), true);
+            synchronized (this) {
+                files.put(name, gz);
+                uploads.put(name, upload);
+                version++;
+                lastChange = Math.max(lastChange, upload);
+            }
+            if (first == null) {
+                first = name;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Compressed size of the newest published file.
+     *
+     * @return [bytes], 0 if nothing is published.
+     */
+    public synchronized long lastFileSize() {
+        return files.isEmpty() ? 0 : files.lastEntry().getValue().length;
+    }
+
+    /**
+     * Number of published files.
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return files.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (latencyMS > 0) {
+                Thread.sleep(latencyMS);
+            }
+            String name = exchange.getRequestURI().getPath().substring(PATH.length());
+            if (name.isEmpty()) {
+                sendListing(exchange);
+            } else {
+                sendFile(exchange, name);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendListing(HttpExchange exchange) throws IOException {
+        String etag;
+        long modified;
+        StringBuilder listing = new StringBuilder(128 * files.size() + 256);
+        synchronized (this) {
+            etag = "\"" + Long.toHexString(version) + "\"";
+            modified = lastChange;
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            SimpleDateFormat date = new SimpleDateFormat("dd-MMM-yyyy HH:mm", Locale.ENGLISH);
+            date.setTimeZone(TimeZone.getTimeZone("UTC"));
+            listing.append("<html>\r\n<head><title>Index of ").append(PATH).append("</title></head>\r\n<body>\r\n<h1>Index of ")
+                    .append(PATH).append("</h1><hr><pre><a href=\"../\">../</a>\r\n");
+            for (Map.Entry<String, byte[]> e : files.entrySet()) {
+                String name = e.getKey();
+                listing.append("<a href=\"").append(name).append("\">").append(name).append("</a>");
+                for (int k = name.length(); k < 51; k++) {
+                    listing.append(' ');
+                }
+                listing.append(date.format(new Date(uploads.get(name))));
+                listing.append(String.format("%20d", e.getValue().length)).append("\r\n");
+            }
+            listing.append("</pre><hr></body>\r\n</html>\r\n");
+        }
+        SimpleDateFormat http = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH);
+        http.setTimeZone(TimeZone.getTimeZone("GMT"));
+        byte[] body = listing.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/html");
+        exchange.getResponseHeaders().add("ETag", etag);
+        exchange.getResponseHeaders().add("Last-Modified", http.format(new Date(modified)));
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void sendFile(HttpExchange exchange, String name) throws IOException, InterruptedException {
+        byte[] content;
+        synchronized (this) {
+            content = files.get(name);
+        }
+        if (content == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        int from = 0;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=") && range.endsWith("-")) {
+            from = Integer.parseInt(range.substring(6, range.length() - 1));
+            if (from >= content.length) {
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + (content.length - 1) + "/" + content.length);
+            exchange.sendResponseHeaders(206, content.length - from);
+        } else {
+            exchange.sendResponseHeaders(200, content.length);
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            long start = System.nanoTime();
+            int chunk = 16384;
+            for (int p = from; p < content.length; p += chunk) {
+                int n = Math.min(chunk, content.length - p);
+                long rate = bytesPerSecond;
+                if (rate > 0) {
+                    //Wait until the transfer rate allows the next chunk
+                    long due = start + (long) ((p - from) * 1E9 / rate);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    }
+                }
+                out.write(content, p, n);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2019 saemann.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package rain.radolan;
+
+import java.nio.ByteBuffer;
+import java.util.GregorianCalendar;
+import java.util.Random;
+
+/**
+ * Synthetic RQ frames for the local server, benchmarks and tests.
+ *
+ * @author saemann
+ */
+public class RadolanFixtures {
+
+    /**
+     * Creates a body with mostly dry cells, some rain and a few flagged cells.
+     *
+     * @param x columns
+     * @param y rows
+     * @param seed of the random values
+     * @return big-endian words of an RQ body
+     */
+    public static byte[] createBody(int x, int y, long seed) {
+        Random r = new Random(seed);
+        byte[] body = new byte[x * y * 2];
+        for (int k = 0; k < x * y; k++) {
+            int word = 0;
+            double d = r.nextDouble();
+            if (d < 0.05) {
+                word = 0x2000 | 0x09C4;
+            } else if (d < 0.25) {
+                word = r.nextInt(600);
+            } else if (d < 0.26) {
+                word = 0x4000 | r.nextInt(600);
+            } else if (d < 0.27) {
+                word = 0x8000 | r.nextInt(600);
+            }
+            body[2 * k] = (byte) (word >> 8);
+            body[2 * k + 1] = (byte) word;
+        }
+        return body;
+    }
+
+    /**
+     * Synthetic RQ frame with mostly dry cells, some rain and a few missing
+     * values.
+     *
+     * @param productionTime UTC
+     * @param leadTime [minutes]
+     * @param x columns
+     * @param y rows
+     * @param seed of the random values
+     * @return
+     */
+    public static RadolanData createFrame(GregorianCalendar productionTime, int leadTime, int x, int y, long seed) {
+        short[] grid = new short[x * y];
+        RadolanReader.decodeBody(ByteBuffer.wrap(createBody(x, y, seed)), 0, x, y, grid, 0);
+        return RadolanReader.createData("RQ", grid, x, y, leadTime, productionTime);
+    }
+}